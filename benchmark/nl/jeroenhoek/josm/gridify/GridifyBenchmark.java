@@ -0,0 +1,275 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.exception.GridifyException;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the phases of generating a grid: interpolating the lattice, creating the nodes, assembling the
+ * ways, constructing the commands, and executing and undoing these commands against an in-memory data set.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec} or {@code ant benchmark}. Both attach the GC profiler, so the
+ * results include the allocation rate next to the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GridifyBenchmark {
+    /**
+     * Number of rows and of columns; from the default up to {@code PositiveSpinner.SPINNER_MAX_VALUE}.
+     */
+    @Param({"2", "10", "100", "300", "1000"})
+    public int size;
+
+    private Node[] corners;
+    private InputData inputData;
+    private GridLattice lattice;
+
+    /**
+     * Initialize the bits of JOSM the grid generation depends on, and set up the input.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Config.setPreferencesInstance(Preferences.main());
+        ProjectionRegistry.setProjection(Projections.getProjectionByCode("EPSG:3857"));
+
+        // A slightly slanted parking lot.
+        corners = new Node[]{
+                new Node(new LatLon(52.0010, 5.0000)),
+                new Node(new LatLon(52.0012, 5.0020)),
+                new Node(new LatLon(52.0002, 5.0022)),
+                new Node(new LatLon(52.0000, 5.0002)),
+        };
+
+        inputData = new InputData(GridExtrema.from(corners[0], corners[1], corners[2], corners[3]));
+        lattice = GridLattice.compute(inputData.getGridExtrema(), size, size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Normalizing the four selected nodes into the corners of the grid.
+     *
+     * @return The extrema, so the work isn't optimized away.
+     */
+    @Benchmark
+    public GridExtrema gridExtrema() {
+        return GridExtrema.from(corners[2], corners[0], corners[3], corners[1]);
+    }
+
+    /**
+     * Interpolating the coordinates of every node of the grid.
+     *
+     * @return The lattice.
+     */
+    @Benchmark
+    public GridLattice interpolation(ParallelState parallel) {
+        return GridLattice.compute(inputData.getGridExtrema(), size, size, parallel.threshold());
+    }
+
+    /**
+     * Creating a node for every point of the lattice.
+     *
+     * @return The nodes.
+     */
+    @Benchmark
+    public List<List<Node>> nodeCreation() {
+        return lattice.createNodes(inputData.getGridExtrema(), node -> { });
+    }
+
+    /**
+     * Assembling the ways from the nodes.
+     *
+     * @return The ways.
+     * @throws GridifyException Thrown if the operation fails.
+     */
+    @Benchmark
+    public List<Way> wayAssembly(OperationState operation, ParallelState parallel, NodeState nodes)
+            throws GridifyException {
+        return operation.operation.perform(nodes.columns, parallel.threshold());
+    }
+
+    /**
+     * Everything up to and including constructing the commands that add the grid to the data set.
+     *
+     * @return The commands.
+     * @throws GridifyException Thrown if the grid cannot be calculated.
+     */
+    @Benchmark
+    public Collection<Command> commandConstruction(OperationState operation, ParallelState parallel,
+                                                   CornerState corners) throws GridifyException {
+        return GridifyAction.calculateGridCommands(new DataSet(), corners.inputData, size, size,
+                operation.operation, false, false, parallel.threshold());
+    }
+
+    /**
+     * Executing the commands against an in-memory data set, and undoing them again.
+     *
+     * @return The data set.
+     */
+    @Benchmark
+    public DataSet executeAndUndo(DataSetState state) {
+        List<Command> commands = new ArrayList<>(state.commands);
+        for (Command command : commands) {
+            command.executeCommand();
+        }
+        for (int i = commands.size() - 1; i >= 0; i--) {
+            commands.get(i).undoCommand();
+        }
+        return state.dataSet;
+    }
+
+    /**
+     * Copies of the corners, so that the ways of one invocation are not added as referrers to the nodes of the next.
+     */
+    private Node[] copyCorners() {
+        Node[] copies = new Node[corners.length];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = new Node(corners[i].getEastNorth());
+        }
+        return copies;
+    }
+
+    /**
+     * The operation to benchmark, for the benchmarks that depend on it.
+     */
+    @State(Scope.Benchmark)
+    public static class OperationState {
+        /**
+         * The operation to benchmark.
+         */
+        @Param({"LINES", "BLOCKS"})
+        public Operation operation;
+    }
+
+    /**
+     * Whether to generate the grid on the common ForkJoinPool, for the benchmarks that can do so.
+     */
+    @State(Scope.Benchmark)
+    public static class ParallelState {
+        /**
+         * Whether to generate the grid in parallel.
+         */
+        @Param({"false", "true"})
+        public boolean parallel;
+
+        int threshold() {
+            return parallel ? 0 : Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Fresh corners for every invocation of {@link #commandConstruction(OperationState, ParallelState, CornerState)}.
+     */
+    @State(Scope.Thread)
+    public static class CornerState {
+        InputData inputData;
+
+        /**
+         * Set up the corners.
+         *
+         * @param benchmark The benchmark state, holding the corners.
+         */
+        @Setup(Level.Invocation)
+        public void setUp(GridifyBenchmark benchmark) {
+            Node[] corners = benchmark.copyCorners();
+            inputData = new InputData(GridExtrema.from(corners[0], corners[1], corners[2], corners[3]));
+        }
+    }
+
+    /**
+     * Fresh nodes for every invocation of {@link #wayAssembly(OperationState, ParallelState, NodeState)}.
+     */
+    @State(Scope.Thread)
+    public static class NodeState {
+        List<List<Node>> columns;
+
+        /**
+         * Set up the nodes.
+         *
+         * @param benchmark The benchmark state, holding the lattice and corners.
+         */
+        @Setup(Level.Invocation)
+        public void setUp(GridifyBenchmark benchmark) {
+            Node[] corners = benchmark.copyCorners();
+            columns = benchmark.lattice.createNodes(
+                    GridExtrema.from(corners[0], corners[1], corners[2], corners[3]), node -> { });
+        }
+    }
+
+    /**
+     * A fresh data set, and fresh commands that add a grid to it, for every invocation of
+     * {@link #executeAndUndo(DataSetState)}.
+     */
+    @State(Scope.Thread)
+    public static class DataSetState {
+        DataSet dataSet;
+        Collection<Command> commands;
+
+        /**
+         * Set up the data set and commands.
+         *
+         * @param benchmark The benchmark state, holding the size and corners.
+         * @param operation The operation to benchmark.
+         * @throws GridifyException Thrown if the grid cannot be calculated.
+         */
+        @Setup(Level.Invocation)
+        public void setUp(GridifyBenchmark benchmark, OperationState operation) throws GridifyException {
+            // The corners of the grid have to be part of the data set the grid is added to.
+            dataSet = new DataSet();
+            Node[] corners = benchmark.copyCorners();
+            for (Node corner : corners) {
+                dataSet.addPrimitive(corner);
+            }
+            InputData inputData = new InputData(GridExtrema.from(corners[0], corners[1], corners[2], corners[3]));
+            commands = GridifyAction.calculateGridCommands(
+                    dataSet, inputData, benchmark.size, benchmark.size, operation.operation, false, false,
+                    Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Run all benchmarks with the GC profiler attached.
+     *
+     * @param args Ignored.
+     * @throws RunnerException Thrown if JMH fails to run the benchmarks.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(GridifyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,68 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.exception.GridifyException;
+
+/**
+ * A preview that shows small grids in the data set, and falls back to drawing large grids as an overlay.
+ * <p>
+ * Adding hundreds of thousands of primitives to the data set for every change of the settings can exhaust the heap
+ * before the user has even confirmed. Whether a grid is too large is decided by a {@link GridCostEstimate}, before any
+ * primitives are generated for it.
+ */
+class AdaptivePreview implements LivePreview {
+    private final LivePreview dataSetPreview;
+    private final LivePreview overlay;
+    private final long overlayThreshold;
+
+    private LivePreview active;
+
+    /**
+     * Constructs an adaptive preview.
+     *
+     * @param dataSetPreview   The preview used for small grids.
+     * @param overlay          The preview used for large grids.
+     * @param overlayThreshold Grids with more new primitives than this are drawn as an overlay.
+     */
+    AdaptivePreview(LivePreview dataSetPreview, LivePreview overlay, long overlayThreshold) {
+        this.dataSetPreview = dataSetPreview;
+        this.overlay = overlay;
+        this.overlayThreshold = overlayThreshold;
+    }
+
+    @Override
+    public void apply(GridLattice coordinates, Operation operation, boolean copyTags, boolean deleteSourceWay) {
+        GridCostEstimate estimate = GridCostEstimate.of(coordinates.getNumRows(), coordinates.getNumColumns(), operation);
+        LivePreview preview = estimate.getPrimitiveCount() > overlayThreshold ? overlay : dataSetPreview;
+
+        if (active != null && active != preview) {
+            active.remove();
+        }
+        active = preview;
+        active.apply(coordinates, operation, copyTags, deleteSourceWay);
+    }
+
+    @Override
+    public int getWayCount() {
+        return active == null ? 0 : active.getWayCount();
+    }
+
+    @Override
+    public boolean isInDataSet() {
+        return active != null && active.isInDataSet();
+    }
+
+    @Override
+    public void remove() {
+        if (active != null) {
+            active.remove();
+        }
+    }
+
+    @Override
+    public void commit(GridifySettings settings) throws GridifyException {
+        if (active != null) {
+            active.commit(settings);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.exception.GridifyException;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static nl.jeroenhoek.josm.gridify.ui.PositiveSpinner.SPINNER_MAX_VALUE;
+import static nl.jeroenhoek.josm.gridify.ui.PositiveSpinner.SPINNER_MIN_VALUE;
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+/**
+ * Generates grids for many source ways at once, with shared settings, as a single undoable command.
+ */
+final class GridBatch {
+    private final List<InputData> inputs;
+    private final int numRows;
+    private final int numColumns;
+    private final double targetCellSize;
+
+    /**
+     * Constructs a GridBatch.
+     *
+     * @param inputs         The source ways to generate grids for.
+     * @param numRows        Number of rows in each grid, unless derived from {@code targetCellSize}.
+     * @param numColumns     Number of columns in each grid, unless derived from {@code targetCellSize}.
+     * @param targetCellSize The preferred width and height of a cell in meters, or zero to use {@code numRows} and
+     *                       {@code numColumns} for every grid.
+     */
+    GridBatch(List<InputData> inputs, int numRows, int numColumns, double targetCellSize) {
+        this.inputs = inputs;
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.targetCellSize = targetCellSize;
+    }
+
+    /**
+     * The number of rows of the grid generated for a source way.
+     *
+     * @param inputData One of the source ways of this batch.
+     * @return The number of rows.
+     */
+    int getNumRows(InputData inputData) {
+        if (targetCellSize <= 0) return numRows;
+        GridGeometry geometry = inputData.getGridExtrema().getGeometry();
+        return divisions((geometry.getLeftLength() + geometry.getRightLength()) / 2);
+    }
+
+    /**
+     * The number of columns of the grid generated for a source way.
+     *
+     * @param inputData One of the source ways of this batch.
+     * @return The number of columns.
+     */
+    int getNumColumns(InputData inputData) {
+        if (targetCellSize <= 0) return numColumns;
+        GridGeometry geometry = inputData.getGridExtrema().getGeometry();
+        return divisions((geometry.getTopLength() + geometry.getBottomLength()) / 2);
+    }
+
+    private int divisions(double length) {
+        long divisions = Math.round(length / targetCellSize);
+        return (int) Math.max(SPINNER_MIN_VALUE, Math.min(SPINNER_MAX_VALUE, divisions));
+    }
+
+    /**
+     * The total number of ways generated for all source ways.
+     *
+     * @param operation The operation type (blocks or lines).
+     * @return The number of ways.
+     */
+    long getWayCount(Operation operation) {
+        long count = 0;
+        for (InputData inputData : inputs) {
+            count += operation.getWayCount(getNumRows(inputData), getNumColumns(inputData));
+        }
+        return count;
+    }
+
+    /**
+     * The estimated cost of generating the grids of all source ways.
+     *
+     * @param operation The operation type (blocks or lines).
+     * @return The combined estimate.
+     */
+    GridCostEstimate getCostEstimate(Operation operation) {
+        GridCostEstimate estimate = GridCostEstimate.NONE;
+        for (InputData inputData : inputs) {
+            estimate = estimate.plus(GridCostEstimate.of(getNumRows(inputData), getNumColumns(inputData), operation));
+        }
+        return estimate;
+    }
+
+    /**
+     * Generate the grids of all source ways.
+     * <p>
+     * The lattices of the grids are computed in parallel. Neighbouring source ways may share corner nodes, so the
+     * nodes and ways are created one grid at a time, on the calling thread.
+     *
+     * @param dataSet           The dataset to operate on.
+     * @param operation         The operation type (blocks or lines).
+     * @param copyTags          Whether to copy tags from the source ways.
+     * @param deleteSourceWay   Whether to delete the source ways after the operation.
+     * @param parallelThreshold Minimum number of cells for a grid to be generated on multiple threads.
+     * @param snapTolerance     Distance in meters within which existing nodes along the edges of a grid are used
+     *                          instead of new nodes, or zero to always create new nodes.
+     * @return A collection of commands that, when executed, generate all grids. The first command returned is the
+     * {@link nl.jeroenhoek.josm.gridify.command.AddGridCommand} of all grids.
+     * @throws GridifyException Thrown if there is an error in the grid calculation.
+     */
+    Collection<Command> createCommands(DataSet dataSet, Operation operation, boolean copyTags, boolean deleteSourceWay,
+                                       int parallelThreshold, double snapTolerance) throws GridifyException {
+        // Node coordinates are read here; the lattices are computed without touching any primitives.
+        GridGeometry[] geometries = new GridGeometry[inputs.size()];
+        int[] rows = new int[inputs.size()];
+        int[] columns = new int[inputs.size()];
+        for (int i = 0; i < inputs.size(); i++) {
+            geometries[i] = inputs.get(i).getGridExtrema().getGeometry();
+            rows[i] = getNumRows(inputs.get(i));
+            columns[i] = getNumColumns(inputs.get(i));
+        }
+
+        List<GridLattice> lattices = IntStream.range(0, inputs.size()).parallel()
+                .mapToObj(i -> GridLattice.compute(geometries[i], rows[i], columns[i], parallelThreshold))
+                .collect(Collectors.toList());
+
+        GridCommandBuilder builder = new GridCommandBuilder(dataSet, copyTags, deleteSourceWay);
+        for (int i = 0; i < inputs.size(); i++) {
+            InputData inputData = inputs.get(i);
+            builder.startGrid(inputData);
+            GridExtrema extrema = inputData.getGridExtrema();
+            PerimeterSnapper snapper = snapTolerance <= 0 ? null : PerimeterSnapper.search(
+                    dataSet, extrema, rows[i], columns[i], snapTolerance, Collections.emptySet());
+            List<List<Node>> nodes = lattices.get(i).createNodes(extrema, snapper, builder::addNode);
+            builder.addOutline(nodes);
+            operation.perform(nodes, parallelThreshold, builder);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * A description of the batch, for the undo history.
+     *
+     * @return The description.
+     */
+    String getDescription() {
+        return trn("Create grids for {0} way", "Create grids for {0} ways", inputs.size(), inputs.size());
+    }
+}
@@ -0,0 +1,177 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.command.AddGridCommand;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.TagMap;
+import org.openstreetmap.josm.data.osm.Way;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sink for the nodes and ways of one or more generated grids, that turns them into the commands adding the grids to
+ * the data set. For each grid, call {@link #startGrid(InputData)}, pass {@link #addNode(Node)} to
+ * {@link GridLattice#createNodes(GridExtrema, Consumer)} and the builder itself to
+ * {@link Operation#perform(List, int, Consumer)}, and pass the nodes along its outline to {@link #addOutline(List)}.
+ * Finally, call {@link #build()}.
+ */
+class GridCommandBuilder implements Consumer<Way> {
+    private final DataSet dataSet;
+    private final boolean copyTags;
+    private final boolean deleteSourceWay;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Way> ways = new ArrayList<>();
+    private final GridOutline outline = new GridOutline();
+
+    // The source of each grid.
+    private final List<InputData> grids = new ArrayList<>();
+    // Commands changing existing primitives, run once the grids have been added.
+    private final List<Command> changes = new ArrayList<>();
+    // The tags of the current grid, shared by all of its ways; null if no tags are copied.
+    private TagMap tags;
+
+    /**
+     * Constructs a GridCommandBuilder for any number of grids.
+     *
+     * @param dataSet         The dataset to operate on.
+     * @param copyTags        Whether to copy tags from the source ways.
+     * @param deleteSourceWay Whether to delete the source ways after the operation.
+     */
+    GridCommandBuilder(DataSet dataSet, boolean copyTags, boolean deleteSourceWay) {
+        this.dataSet = dataSet;
+        this.copyTags = copyTags;
+        this.deleteSourceWay = deleteSourceWay;
+    }
+
+    /**
+     * Constructs a GridCommandBuilder for a single grid.
+     *
+     * @param dataSet         The dataset to operate on.
+     * @param inputData       The user-selected input data (nodes/way).
+     * @param copyTags        Whether to copy tags from the source way.
+     * @param deleteSourceWay Whether to delete the source way after the operation.
+     */
+    GridCommandBuilder(DataSet dataSet, InputData inputData, boolean copyTags, boolean deleteSourceWay) {
+        this(dataSet, copyTags, deleteSourceWay);
+        startGrid(inputData);
+    }
+
+    /**
+     * Start a new grid. All ways added from here on belong to this grid.
+     *
+     * @param inputData The input data (nodes/way) of the grid.
+     */
+    void startGrid(InputData inputData) {
+        grids.add(inputData);
+        tags = copyTags && !inputData.getTags().isEmpty() ? new TagMap(inputData.getTags()) : null;
+    }
+
+    /**
+     * Add a newly generated node of the grid.
+     *
+     * @param node The node.
+     */
+    void addNode(Node node) {
+        nodes.add(node);
+    }
+
+    /**
+     * Add the outline of a grid generated from a lattice; these are the first and last column, and the first and last
+     * node of every column.
+     *
+     * @param columns All the nodes of the grid, as a list of columns each containing an equal number of nodes.
+     */
+    void addOutline(List<List<Node>> columns) {
+        outline.addSides(columns);
+    }
+
+    /**
+     * Add a part of the outline of the grid, of nodes that follow each other along it, new or existing.
+     *
+     * @param path The nodes.
+     */
+    void addOutlinePath(List<Node> path) {
+        outline.addPath(path);
+    }
+
+    /**
+     * Add a command that changes an existing primitive to fit the grid; e.g., by inserting new nodes into the source
+     * way. It runs after the grids have been added, so it can refer to their nodes.
+     *
+     * @param command The command.
+     */
+    void addChange(Command command) {
+        changes.add(command);
+    }
+
+    /**
+     * Add a newly generated way of the grid, and give it the tags of the source way if these are to be copied. The
+     * way isn't part of the data set yet, so this doesn't notify any listeners. Because a {@link TagMap} is never
+     * changed in place, all ways of the grid share its array of tags until one of them is edited.
+     *
+     * @param way The way.
+     */
+    @Override
+    public void accept(Way way) {
+        if (tags != null) {
+            way.setKeys(tags);
+        }
+        ways.add(way);
+    }
+
+    /**
+     * The number of ways received so far.
+     *
+     * @return The number of ways.
+     */
+    int getWayCount() {
+        return ways.size();
+    }
+
+    /**
+     * Create the commands that add all nodes and ways received so far to the data set, and select the new ways. The
+     * first command returned is the {@link AddGridCommand}, which also does the selecting; it selects all new ways
+     * unless {@link AddGridCommand#setSelectionPolicy} says otherwise. Source ways that can't be deleted are kept; see
+     * {@link #canDeleteSourceWay(Way)}.
+     *
+     * @return A collection of commands that, when executed, generate the grids.
+     */
+    Collection<Command> build() {
+        long start = GridifyMetrics.start();
+        Collection<Command> commands = new ArrayList<>();
+
+        commands.add(new AddGridCommand(dataSet, nodes, ways, outline));
+        commands.addAll(changes);
+
+        if (deleteSourceWay) {
+            for (InputData inputData : grids) {
+                inputData.getSourceWay()
+                        .filter(GridCommandBuilder::canDeleteSourceWay)
+                        .ifPresent(way -> commands.add(new DeleteCommand(dataSet, way)));
+            }
+        }
+
+        GridifyMetrics metrics = GridifyMetrics.getInstance();
+        metrics.count(GridifyMetrics.Counter.PRIMITIVES_CREATED, nodes.size() + ways.size());
+        metrics.record(GridifyMetrics.Phase.COMMANDS, start);
+        return commands;
+    }
+
+    /**
+     * Whether a source way is deleted when the user asks for it. Ways that are part of a relation are kept, because
+     * deleting them would break the relation.
+     *
+     * @param way The source way.
+     * @return True if the way can be deleted.
+     */
+    static boolean canDeleteSourceWay(Way way) {
+        return way.getReferrers().isEmpty();
+    }
+}
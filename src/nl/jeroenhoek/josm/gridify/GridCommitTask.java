@@ -0,0 +1,121 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.command.AddGridCommand;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.UndoRedoHandler;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * Adds a large grid to the data set in chunks, with a progress dialog, instead of in one go on the event dispatch
+ * thread.
+ * <p>
+ * Every chunk is added in a data set update of its own, so the events fired for it are limited to the chunk size.
+ * This doesn't limit the heap the grid takes up: all of its primitives exist before the first chunk is added. See
+ * {@link GridCostEstimate} for the warning about grids that may not fit. The chunks themselves are added on the event
+ * dispatch thread, which keeps the UI responsive in between. If the user cancels, the chunks added so far are removed again and nothing ends up in the
+ * undo history. Otherwise, the command is added to the undo history once all primitives are in the data set; at that
+ * point the {@link AddGridCommand} counts as executed, so it isn't executed a second time.
+ */
+class GridCommitTask extends PleaseWaitRunnable {
+    private final Command command;
+    private final AddGridCommand addGridCommand;
+    private final int chunkSize;
+
+    private volatile boolean canceled;
+    // Number of primitives that are part of the data set; only accessed on the event dispatch thread.
+    private int added;
+
+    /**
+     * Constructs a GridCommitTask.
+     *
+     * @param command        The command to add to the undo history, which includes {@code addGridCommand}.
+     * @param addGridCommand The command adding the primitives of the grid.
+     * @param chunkSize      Maximum number of primitives to add per data set update.
+     */
+    GridCommitTask(Command command, AddGridCommand addGridCommand, int chunkSize) {
+        super(tr("Creating grid"), false);
+        this.command = command;
+        this.addGridCommand = addGridCommand;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Add a grid to the undo history: right away if it is small, or in chunks in the background if it has more
+     * primitives than {@link GridifySettings#getCommitChunkSize()}. The new ways are selected according to
+     * {@link GridifySettings#getSelectionPolicy()}.
+     *
+     * @param command        The command to add to the undo history, which includes {@code addGridCommand}.
+     * @param addGridCommand The command adding the primitives of the grid.
+     * @param settings       The settings to commit with.
+     */
+    static void commit(Command command, AddGridCommand addGridCommand, GridifySettings settings) {
+        int chunkSize = settings.getCommitChunkSize();
+        addGridCommand.setSelectionPolicy(settings.getSelectionPolicy(), settings.getSelectionLimit());
+        if (addGridCommand.getPrimitiveCount() > chunkSize) {
+            MainApplication.worker.submit(new GridCommitTask(command, addGridCommand, chunkSize));
+        } else {
+            addToUndoHistory(command);
+        }
+    }
+
+    /**
+     * Add a command to the undo history, executing it unless it has been executed already, and record how long that
+     * took in the {@link GridifyMetrics}. All commands of the sequence run within a single data set update, so
+     * listeners are notified once rather than once per command.
+     *
+     * @param command The command to add.
+     */
+    static void addToUndoHistory(Command command) {
+        GridifyMetrics metrics = GridifyMetrics.getInstance();
+        long start = GridifyMetrics.start();
+        DataSet dataSet = command.getAffectedDataSet();
+        if (dataSet != null) {
+            dataSet.update(() -> UndoRedoHandler.getInstance().add(command));
+        } else {
+            UndoRedoHandler.getInstance().add(command);
+        }
+        metrics.record(GridifyMetrics.Phase.UNDO_HISTORY, start);
+        metrics.count(GridifyMetrics.Counter.COMMANDS_EXECUTED,
+                command instanceof SequenceCommand ? ((SequenceCommand) command).getChildren().size() : 1);
+        metrics.log("commit");
+    }
+
+    @Override
+    protected void realRun() {
+        int total = addGridCommand.getPrimitiveCount();
+        ProgressMonitor monitor = getProgressMonitor();
+        monitor.setTicksCount(total);
+
+        for (int from = 0; from < total && !canceled; from += chunkSize) {
+            int to = Math.min(total, from + chunkSize);
+            GuiHelper.runInEDTAndWait(() -> {
+                addGridCommand.executeChunk(added, to);
+                added = to;
+            });
+            monitor.worked(to - from);
+        }
+    }
+
+    @Override
+    protected void cancel() {
+        canceled = true;
+    }
+
+    @Override
+    protected void finish() {
+        // Also roll back if adding a chunk failed.
+        if (canceled || added < addGridCommand.getPrimitiveCount()) {
+            addGridCommand.rollback(added);
+        } else {
+            addToUndoHistory(command);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+/**
+ * Predicts what generating a grid costs, from its size and operation alone, before any of it is generated.
+ * <p>
+ * The heap estimate is a rough approximation based on the typical size of JOSM primitives on a 64-bit JVM with
+ * compressed references. It is meant for telling a grid that fits comfortably apart from one that doesn't, so the
+ * user can be warned before generating the latter. It doesn't limit how much heap a grid takes up.
+ */
+public final class GridCostEstimate {
+    // Approximate retained size of a Node, including its coordinates and its referrers array.
+    private static final long NODE_BYTES = 120;
+    // Approximate retained size of a Way, excluding its node array.
+    private static final long WAY_BYTES = 80;
+    // A reference from a way to a node, plus the reference back from the node to the way.
+    private static final long NODE_REFERENCE_BYTES = 12;
+
+    /**
+     * The cost of generating nothing at all; a starting point for combining estimates.
+     */
+    public static final GridCostEstimate NONE = new GridCostEstimate(0, 0, 0);
+
+    private final long nodeCount;
+    private final long wayCount;
+    private final long nodeReferenceCount;
+
+    private GridCostEstimate(long nodeCount, long wayCount, long nodeReferenceCount) {
+        this.nodeCount = nodeCount;
+        this.wayCount = wayCount;
+        this.nodeReferenceCount = nodeReferenceCount;
+    }
+
+    /**
+     * Estimate the cost of a grid.
+     *
+     * @param numRows    Number of rows in the grid.
+     * @param numColumns Number of columns in the grid.
+     * @param operation  The operation type (blocks or lines).
+     * @return The estimate.
+     */
+    public static GridCostEstimate of(int numRows, int numColumns, Operation operation) {
+        // The four corner nodes already exist.
+        long nodes = (long) (numRows + 1) * (numColumns + 1) - 4;
+        long ways = operation.getWayCount(numRows, numColumns);
+        // Lines pass through every node twice; blocks are closed rings of five nodes.
+        long references = operation == Operation.LINES
+                ? 2L * (numRows + 1) * (numColumns + 1)
+                : 5L * numRows * numColumns;
+        return new GridCostEstimate(nodes, ways, references);
+    }
+
+    /**
+     * Combine this estimate with that of another grid.
+     *
+     * @param other The estimate of the other grid.
+     * @return The estimate of both grids together.
+     */
+    public GridCostEstimate plus(GridCostEstimate other) {
+        return new GridCostEstimate(
+                nodeCount + other.nodeCount,
+                wayCount + other.wayCount,
+                nodeReferenceCount + other.nodeReferenceCount);
+    }
+
+    /**
+     * The number of new primitives.
+     *
+     * @return The number of new nodes and ways.
+     */
+    public long getPrimitiveCount() {
+        return nodeCount + wayCount;
+    }
+
+    /**
+     * The approximate amount of heap the new primitives take up.
+     *
+     * @return The number of bytes.
+     */
+    public long getHeapBytes() {
+        return nodeCount * NODE_BYTES + wayCount * WAY_BYTES + nodeReferenceCount * NODE_REFERENCE_BYTES;
+    }
+
+    /**
+     * Whether the new primitives fit in the heap that is currently available.
+     *
+     * @return True if the estimated heap use is below the amount of memory available to the JVM.
+     */
+    public boolean fitsInAvailableMemory() {
+        return getHeapBytes() < getAvailableHeapBytes();
+    }
+
+    /**
+     * The amount of heap the JVM can still allocate: the maximum heap size minus what is in use.
+     *
+     * @return The number of bytes.
+     */
+    public static long getAvailableHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+}
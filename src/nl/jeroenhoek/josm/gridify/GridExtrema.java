@@ -3,10 +3,7 @@ package nl.jeroenhoek.josm.gridify;
 
 import org.openstreetmap.josm.data.ProjectionBounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
-import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.Node;
-import org.openstreetmap.josm.data.projection.Projection;
-import org.openstreetmap.josm.data.projection.ProjectionRegistry;
 
 import java.util.Arrays;
 import java.util.Comparator;
@@ -22,6 +19,8 @@ public final class GridExtrema {
     Node three; // BR
     Node four;  // BL
 
+    private volatile GridGeometry geometry;
+
     private GridExtrema(Node one, Node two, Node three, Node four) {
         this.one = one;
         this.two = two;
@@ -94,66 +93,18 @@ public final class GridExtrema {
     }
 
     /**
-     * Holds calculated cell dimensions.
-     */
-    public static class CellDimensions {
-        /**
-         * The average width of the cell.
-         */
-        public final double width;
-        /**
-         * The average height of the cell.
-         */
-        public final double height;
-        /**
-         * The area of the cell.
-         */
-        public final double area;
-
-        /**
-         * Initializes the cell dimensions.
-         *
-         * @param width  The average width.
-         * @param height The average height.
-         * @param area   The area.
-         */
-        public CellDimensions(double width, double height, double area) {
-            this.width = width;
-            this.height = height;
-            this.area = area;
-        }
-    }
-
-    /**
-     * Calculates the average dimensions of a single cell in the grid using meters.
+     * A snapshot of the coordinates and edge lengths of the four nodes. The snapshot is reused until the projection
+     * changes or one of the nodes is moved. Call this on the thread that owns the data set of the nodes.
      *
-     * @param numRows Total number of rows.
-     * @param numCols Total number of columns.
-     * @return The {@link CellDimensions} of a single cell.
+     * @return The {@link GridGeometry} of the grid extrema.
      */
-    public CellDimensions getAverageCellDimensions(int numRows, int numCols) {
-        Projection proj = ProjectionRegistry.getProjection();
-
-        // convert to LatLon to measure real-world meters
-        LatLon l1 = proj.eastNorth2latlon(one.getEastNorth());   // TL
-        LatLon l2 = proj.eastNorth2latlon(two.getEastNorth());   // TR
-        LatLon l3 = proj.eastNorth2latlon(three.getEastNorth()); // BR
-        LatLon l4 = proj.eastNorth2latlon(four.getEastNorth());  // BL
-
-        // calculate average width (top edge + bottom edge)
-        double widthTop = l1.greatCircleDistance(l2);
-        double widthBottom = l4.greatCircleDistance(l3);
-        double avgTotalWidth = (widthTop + widthBottom) / 2.0;
-
-        // calculate average height (left edge + right edge)
-        double heightLeft = l1.greatCircleDistance(l4);
-        double heightRight = l2.greatCircleDistance(l3);
-        double avgTotalHeight = (heightLeft + heightRight) / 2.0;
-
-        double cellWidth = avgTotalWidth / numCols;
-        double cellHeight = avgTotalHeight / numRows;
-
-        return new CellDimensions(cellWidth, cellHeight, cellWidth * cellHeight);
+    public GridGeometry getGeometry() {
+        GridGeometry cached = geometry;
+        if (cached == null || !cached.isUpToDate(this)) {
+            cached = GridGeometry.of(this);
+            geometry = cached;
+        }
+        return cached;
     }
 
     /**
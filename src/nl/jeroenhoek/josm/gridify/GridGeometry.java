@@ -0,0 +1,172 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+
+/**
+ * An immutable snapshot of the corners of a grid: everything about the grid that doesn't depend on its number of rows
+ * and columns.
+ * <p>
+ * Taking a snapshot reads the coordinates of the corner nodes, which must happen on the thread that owns the data set.
+ * The snapshot itself can be handed to any thread. It is kept by {@link GridExtrema#getGeometry()} until the
+ * projection changes or one of the corner nodes is moved, so every update of the preview only pays for the lattice.
+ */
+public final class GridGeometry {
+    private final Projection projection;
+
+    private final EastNorth topLeft;
+    private final EastNorth topRight;
+    private final EastNorth bottomRight;
+    private final EastNorth bottomLeft;
+
+    private final LatLon topLeftLatLon;
+    private final LatLon topRightLatLon;
+    private final LatLon bottomRightLatLon;
+    private final LatLon bottomLeftLatLon;
+
+    // Lengths of the edges in meters.
+    private final double topLength;
+    private final double rightLength;
+    private final double bottomLength;
+    private final double leftLength;
+
+    private final double metersPerUnit;
+
+    private GridGeometry(GridExtrema extrema) {
+        projection = ProjectionRegistry.getProjection();
+
+        topLeft = extrema.one.getEastNorth();
+        topRight = extrema.two.getEastNorth();
+        bottomRight = extrema.three.getEastNorth();
+        bottomLeft = extrema.four.getEastNorth();
+
+        topLeftLatLon = new LatLon(extrema.one.lat(), extrema.one.lon());
+        topRightLatLon = new LatLon(extrema.two.lat(), extrema.two.lon());
+        bottomRightLatLon = new LatLon(extrema.three.lat(), extrema.three.lon());
+        bottomLeftLatLon = new LatLon(extrema.four.lat(), extrema.four.lon());
+
+        topLength = topLeftLatLon.greatCircleDistance(topRightLatLon);
+        rightLength = topRightLatLon.greatCircleDistance(bottomRightLatLon);
+        bottomLength = bottomLeftLatLon.greatCircleDistance(bottomRightLatLon);
+        leftLength = topLeftLatLon.greatCircleDistance(bottomLeftLatLon);
+
+        // The ratio between distances in meters and in projected units, measured along the diagonal of the grid.
+        double projected = Math.hypot(bottomRight.east() - topLeft.east(), bottomRight.north() - topLeft.north());
+        metersPerUnit = projected == 0 ? 0 : topLeftLatLon.greatCircleDistance(bottomRightLatLon) / projected;
+    }
+
+    /**
+     * Take a snapshot of the corners of a grid. Call this on the thread that owns the data set of the corner nodes.
+     *
+     * @param extrema The corners of the grid.
+     * @return The snapshot.
+     */
+    static GridGeometry of(GridExtrema extrema) {
+        return new GridGeometry(extrema);
+    }
+
+    /**
+     * Whether this snapshot still describes the corners of a grid: the projection is the same, and none of the corner
+     * nodes has moved. This only reads the coordinates stored in the nodes, without projecting them.
+     *
+     * @param extrema The corners of the grid this snapshot was taken of.
+     * @return True if the snapshot is up to date.
+     */
+    boolean isUpToDate(GridExtrema extrema) {
+        return projection == ProjectionRegistry.getProjection()
+                && isAt(extrema.one, topLeftLatLon)
+                && isAt(extrema.two, topRightLatLon)
+                && isAt(extrema.three, bottomRightLatLon)
+                && isAt(extrema.four, bottomLeftLatLon);
+    }
+
+    private static boolean isAt(Node node, LatLon latLon) {
+        return node.lat() == latLon.lat() && node.lon() == latLon.lon();
+    }
+
+    /**
+     * The east/north coordinates of the top-left corner.
+     *
+     * @return The coordinates.
+     */
+    public EastNorth getTopLeft() {
+        return topLeft;
+    }
+
+    /**
+     * The east/north coordinates of the top-right corner.
+     *
+     * @return The coordinates.
+     */
+    public EastNorth getTopRight() {
+        return topRight;
+    }
+
+    /**
+     * The east/north coordinates of the bottom-right corner.
+     *
+     * @return The coordinates.
+     */
+    public EastNorth getBottomRight() {
+        return bottomRight;
+    }
+
+    /**
+     * The east/north coordinates of the bottom-left corner.
+     *
+     * @return The coordinates.
+     */
+    public EastNorth getBottomLeft() {
+        return bottomLeft;
+    }
+
+    /**
+     * The length of the top edge, between the top-left and top-right corners.
+     *
+     * @return The length in meters.
+     */
+    public double getTopLength() {
+        return topLength;
+    }
+
+    /**
+     * The length of the right edge, between the top-right and bottom-right corners.
+     *
+     * @return The length in meters.
+     */
+    public double getRightLength() {
+        return rightLength;
+    }
+
+    /**
+     * The length of the bottom edge, between the bottom-left and bottom-right corners.
+     *
+     * @return The length in meters.
+     */
+    public double getBottomLength() {
+        return bottomLength;
+    }
+
+    /**
+     * The length of the left edge, between the top-left and bottom-left corners.
+     *
+     * @return The length in meters.
+     */
+    public double getLeftLength() {
+        return leftLength;
+    }
+
+    /**
+     * The ratio between distances in meters and in projected units. A grid is small enough for the scale of the
+     * projection to be the same all over it.
+     *
+     * @return The number of meters per projected unit, or zero if the grid has no size.
+     */
+    public double getMetersPerUnit() {
+        return metersPerUnit;
+    }
+}
@@ -0,0 +1,288 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * The coordinates of every node of a grid, without any OSM primitives attached to them.
+ * <p>
+ * A grid of {@code rows × columns} cells has {@code (rows + 1) × (columns + 1)} lattice points. Their east and north
+ * coordinates are kept in two flat arrays, column by column, top to bottom; see {@link #index(int, int)}. Nodes are
+ * only created by {@link #createNodes(GridExtrema, Consumer)}, at the point where they are about to be added to the
+ * data set.
+ */
+public final class GridLattice {
+    private final int numRows;
+    private final int numColumns;
+    private final double[] east;
+    private final double[] north;
+
+    private GridLattice(int numRows, int numColumns) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.east = new double[(numRows + 1) * (numColumns + 1)];
+        this.north = new double[(numRows + 1) * (numColumns + 1)];
+    }
+
+    /**
+     * Compute the lattice spanned by the four corners of the grid. Every point is a bilinear interpolation of the
+     * corners. This does not touch any primitives, so it is safe to call from a worker thread. The computation stops
+     * early with a {@link CancellationException} if the calling thread is interrupted.
+     * <p>
+     * Grids of at least {@code parallelThreshold} cells are computed on the common {@link ForkJoinPool}, in stripes
+     * of columns. Every column only depends on the corners, so the result is the same either way.
+     *
+     * @param topLeft           Coordinates of the top-left corner.
+     * @param topRight          Coordinates of the top-right corner.
+     * @param bottomRight       Coordinates of the bottom-right corner.
+     * @param bottomLeft        Coordinates of the bottom-left corner.
+     * @param numRows           Number of rows in the grid.
+     * @param numColumns        Number of columns in the grid.
+     * @param parallelThreshold Minimum number of cells for the lattice to be computed in parallel.
+     * @return The computed lattice.
+     */
+    public static GridLattice compute(EastNorth topLeft, EastNorth topRight,
+                                      EastNorth bottomRight, EastNorth bottomLeft,
+                                      int numRows, int numColumns, int parallelThreshold) {
+        long start = GridifyMetrics.start();
+        GridLattice lattice = new GridLattice(numRows, numColumns);
+        double[] corners = {
+                topLeft.east(), topLeft.north(),
+                topRight.east(), topRight.north(),
+                bottomRight.east(), bottomRight.north(),
+                bottomLeft.east(), bottomLeft.north()
+        };
+
+        // Worker threads of the pool can't see the interrupt flag of the caller, so check the caller explicitly.
+        Thread caller = Thread.currentThread();
+
+        if ((long) numRows * numColumns < parallelThreshold) {
+            lattice.fillColumns(corners, 0, numColumns + 1, caller);
+        } else {
+            int stripeWidth = Math.max(1, (numColumns + 1) / (4 * ForkJoinPool.getCommonPoolParallelism()));
+            int stripes = (numColumns + stripeWidth) / stripeWidth;
+            // Parallel streams run on the common ForkJoinPool.
+            IntStream.range(0, stripes).parallel().forEach(stripe -> lattice.fillColumns(corners,
+                    stripe * stripeWidth, Math.min(numColumns + 1, (stripe + 1) * stripeWidth), caller));
+        }
+
+        GridifyMetrics.getInstance().record(GridifyMetrics.Phase.INTERPOLATION, start);
+        return lattice;
+    }
+
+    /**
+     * Compute the lattice spanned by the four corners of the grid, on the calling thread.
+     *
+     * @param topLeft     Coordinates of the top-left corner.
+     * @param topRight    Coordinates of the top-right corner.
+     * @param bottomRight Coordinates of the bottom-right corner.
+     * @param bottomLeft  Coordinates of the bottom-left corner.
+     * @param numRows     Number of rows in the grid.
+     * @param numColumns  Number of columns in the grid.
+     * @return The computed lattice.
+     * @see #compute(EastNorth, EastNorth, EastNorth, EastNorth, int, int, int)
+     */
+    public static GridLattice compute(EastNorth topLeft, EastNorth topRight,
+                                      EastNorth bottomRight, EastNorth bottomLeft,
+                                      int numRows, int numColumns) {
+        return compute(topLeft, topRight, bottomRight, bottomLeft, numRows, numColumns, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Interpolate the points of the columns {@code from} (inclusive) to {@code to} (exclusive).
+     *
+     * @param corners East and north of the TL, TR, BR and BL corners, in that order.
+     * @param caller  The thread that requested the lattice; stop if it is interrupted.
+     */
+    private void fillColumns(double[] corners, int from, int to, Thread caller) {
+        double tlEast = corners[0], tlNorth = corners[1];
+        double trEast = corners[2], trNorth = corners[3];
+        double brEast = corners[4], brNorth = corners[5];
+        double blEast = corners[6], blNorth = corners[7];
+
+        int i = index(from, 0);
+        for (int col = from; col < to; col++) {
+            if (caller.isInterrupted()) {
+                throw new CancellationException();
+            }
+
+            // The last column is pinned to the corners, so it doesn't suffer from rounding errors.
+            double fraction = col / (double) numColumns;
+            double topEast = col == numColumns ? trEast : tlEast + (trEast - tlEast) * fraction;
+            double topNorth = col == numColumns ? trNorth : tlNorth + (trNorth - tlNorth) * fraction;
+            double bottomEast = col == numColumns ? brEast : blEast + (brEast - blEast) * fraction;
+            double bottomNorth = col == numColumns ? brNorth : blNorth + (brNorth - blNorth) * fraction;
+
+            for (int row = 0; row < numRows; row++) {
+                double rowFraction = row / (double) numRows;
+                east[i] = topEast + (bottomEast - topEast) * rowFraction;
+                north[i] = topNorth + (bottomNorth - topNorth) * rowFraction;
+                i++;
+            }
+            east[i] = bottomEast;
+            north[i] = bottomNorth;
+            i++;
+        }
+    }
+
+    /**
+     * Compute the lattice spanned by the four corners of the grid.
+     *
+     * @param extrema           The corners of the grid.
+     * @param numRows           Number of rows in the grid.
+     * @param numColumns        Number of columns in the grid.
+     * @param parallelThreshold Minimum number of cells for the lattice to be computed in parallel.
+     * @return The computed lattice.
+     * @see #compute(EastNorth, EastNorth, EastNorth, EastNorth, int, int, int)
+     */
+    public static GridLattice compute(GridExtrema extrema, int numRows, int numColumns, int parallelThreshold) {
+        return compute(extrema.getGeometry(), numRows, numColumns, parallelThreshold);
+    }
+
+    /**
+     * Compute the lattice spanned by the four corners of the grid, from a snapshot of its corners. This does not touch
+     * any primitives, so it is safe to call from a worker thread.
+     *
+     * @param geometry          The corners of the grid.
+     * @param numRows           Number of rows in the grid.
+     * @param numColumns        Number of columns in the grid.
+     * @param parallelThreshold Minimum number of cells for the lattice to be computed in parallel.
+     * @return The computed lattice.
+     * @see #compute(EastNorth, EastNorth, EastNorth, EastNorth, int, int, int)
+     */
+    public static GridLattice compute(GridGeometry geometry, int numRows, int numColumns, int parallelThreshold) {
+        return compute(
+                geometry.getTopLeft(),
+                geometry.getTopRight(),
+                geometry.getBottomRight(),
+                geometry.getBottomLeft(),
+                numRows, numColumns, parallelThreshold);
+    }
+
+    /**
+     * Create the nodes of the grid. The corner nodes of the grid are reused; all other nodes are newly created.
+     *
+     * @param extrema  The corners of the grid, as used to compute this lattice.
+     * @param newNodes Receives every newly created node, column by column.
+     * @return All the nodes of the grid, as a list of columns each containing an equal number of nodes.
+     */
+    public List<List<Node>> createNodes(GridExtrema extrema, Consumer<Node> newNodes) {
+        return createNodes(extrema, null, newNodes);
+    }
+
+    /**
+     * Create the nodes of the grid. The corner nodes of the grid are reused, and so are the existing nodes the
+     * {@code snapper} finds along the edges; all other nodes are newly created.
+     *
+     * @param extrema  The corners of the grid, as used to compute this lattice.
+     * @param snapper  Finds existing nodes along the edges of the grid, or {@code null} to only reuse the corners.
+     * @param newNodes Receives every newly created node, column by column.
+     * @return All the nodes of the grid, as a list of columns each containing an equal number of nodes.
+     */
+    List<List<Node>> createNodes(GridExtrema extrema, PerimeterSnapper snapper, Consumer<Node> newNodes) {
+        long start = GridifyMetrics.start();
+        List<List<Node>> columns = new ArrayList<>(numColumns + 1);
+
+        int i = 0;
+        for (int col = 0; col <= numColumns; col++) {
+            Node[] column = new Node[numRows + 1];
+            for (int row = 0; row <= numRows; row++) {
+                Node existing = getCorner(extrema, col, row);
+                if (existing == null && snapper != null) {
+                    existing = snapper.snap(col, row, east[i], north[i]);
+                }
+                if (existing != null) {
+                    column[row] = existing;
+                } else {
+                    column[row] = new Node(new EastNorth(east[i], north[i]));
+                    newNodes.accept(column[row]);
+                }
+                i++;
+            }
+            columns.add(Arrays.asList(column));
+        }
+
+        GridifyMetrics.getInstance().record(GridifyMetrics.Phase.NODES, start);
+        return columns;
+    }
+
+    /**
+     * The corner node at the given lattice position, if it is a corner.
+     *
+     * @return One of the nodes of the extrema, or {@code null} if the position is not a corner.
+     */
+    Node getCorner(GridExtrema extrema, int col, int row) {
+        if (col == 0 && row == 0) return extrema.one;
+        if (col == numColumns && row == 0) return extrema.two;
+        if (col == numColumns && row == numRows) return extrema.three;
+        if (col == 0 && row == numRows) return extrema.four;
+        return null;
+    }
+
+    /**
+     * Index of a lattice point in the coordinate arrays.
+     *
+     * @param col Column index, from zero to {@link #getNumColumns()} inclusive.
+     * @param row Row index, from zero to {@link #getNumRows()} inclusive.
+     * @return The index.
+     */
+    public int index(int col, int row) {
+        return col * (numRows + 1) + row;
+    }
+
+    /**
+     * East coordinate of a lattice point.
+     *
+     * @param index Index as returned by {@link #index(int, int)}.
+     * @return The east coordinate.
+     */
+    public double getEast(int index) {
+        return east[index];
+    }
+
+    /**
+     * North coordinate of a lattice point.
+     *
+     * @param index Index as returned by {@link #index(int, int)}.
+     * @return The north coordinate.
+     */
+    public double getNorth(int index) {
+        return north[index];
+    }
+
+    /**
+     * Number of rows of cells in the grid.
+     *
+     * @return The number of rows.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Number of columns of cells in the grid.
+     *
+     * @return The number of columns.
+     */
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * Number of points in the lattice.
+     *
+     * @return {@code (rows + 1) × (columns + 1)}.
+     */
+    public int size() {
+        return east.length;
+    }
+}
@@ -0,0 +1,68 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outline of one or more grids, as the segments between nodes that follow each other along it. Knowing the nodes
+ * along the outline isn't enough to tell which ways run along it: in a grid of a single row, every column line runs
+ * from one node on the outline to another.
+ */
+public final class GridOutline {
+    // The nodes next to each node along the outline.
+    private final Map<Node, List<Node>> neighbours = new IdentityHashMap<>();
+
+    /**
+     * Add a part of the outline.
+     *
+     * @param path Nodes that follow each other along the outline.
+     */
+    void addPath(List<Node> path) {
+        for (int i = 1; i < path.size(); i++) {
+            Node previous = path.get(i - 1);
+            Node current = path.get(i);
+            if (previous == current) continue;
+            neighbours.computeIfAbsent(previous, node -> new ArrayList<>(2)).add(current);
+            neighbours.computeIfAbsent(current, node -> new ArrayList<>(2)).add(previous);
+        }
+    }
+
+    /**
+     * Add the outline of a grid generated from a lattice; these are the first and last column, and the first and last
+     * node of every column.
+     *
+     * @param columns All the nodes of the grid, as a list of columns each containing an equal number of nodes.
+     */
+    void addSides(List<List<Node>> columns) {
+        List<Node> top = new ArrayList<>(columns.size());
+        List<Node> bottom = new ArrayList<>(columns.size());
+        for (List<Node> column : columns) {
+            top.add(column.get(0));
+            bottom.add(column.get(column.size() - 1));
+        }
+        addPath(columns.get(0));
+        addPath(columns.get(columns.size() - 1));
+        addPath(top);
+        addPath(bottom);
+    }
+
+    /**
+     * Whether part of a way runs along the outline: two consecutive nodes of the way follow each other along it.
+     *
+     * @param way The way.
+     * @return {@code true} if the way shares a segment with the outline.
+     */
+    boolean runsAlong(Way way) {
+        for (int i = 1; i < way.getNodesCount(); i++) {
+            List<Node> next = neighbours.get(way.getNode(i - 1));
+            if (next != null && next.contains(way.getNode(i))) return true;
+        }
+        return false;
+    }
+}
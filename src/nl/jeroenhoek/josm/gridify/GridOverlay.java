@@ -0,0 +1,145 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.command.AddGridCommand;
+import nl.jeroenhoek.josm.gridify.exception.GridifyException;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.layer.MapViewPaintable;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+import java.util.Collection;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * A preview of the grid that is drawn on top of the map, straight from the computed lattice.
+ * <p>
+ * Unlike {@link GridPreview}, this preview doesn't add any primitives to the data set, so changing the settings
+ * doesn't trigger data set listeners, the validator, or selection events. The data set is only touched once the user
+ * confirms.
+ */
+class GridOverlay implements LivePreview, MapViewPaintable {
+    private static final Color COLOR = Color.RED;
+    private static final Stroke STROKE = new BasicStroke(1.5f);
+
+    private final MapView mapView;
+    private final DataSet dataSet;
+    private final InputData inputData;
+
+    private GridLattice coordinates;
+    private Operation operation;
+    private boolean copyTags;
+    private boolean deleteSourceWay;
+
+    // The lines of the grid, in east/north coordinates.
+    private Path2D path;
+    private boolean shown;
+
+    /**
+     * Constructs an overlay. It is added to the map view once there is a grid to draw.
+     *
+     * @param mapView   The map view to draw the preview on.
+     * @param dataSet   The data set the grid will be added to.
+     * @param inputData The user-selected input data (nodes/way).
+     */
+    GridOverlay(MapView mapView, DataSet dataSet, InputData inputData) {
+        this.mapView = mapView;
+        this.dataSet = dataSet;
+        this.inputData = inputData;
+    }
+
+    @Override
+    public void apply(GridLattice coordinates, Operation operation, boolean copyTags, boolean deleteSourceWay) {
+        // The lines of the grid are the same for both operations.
+        if (coordinates != this.coordinates) {
+            this.path = createPath(coordinates);
+        }
+        this.coordinates = coordinates;
+        this.operation = operation;
+        this.copyTags = copyTags;
+        this.deleteSourceWay = deleteSourceWay;
+        if (!shown) {
+            shown = mapView.addTemporaryLayer(this);
+        }
+        mapView.repaint();
+    }
+
+    @Override
+    public int getWayCount() {
+        if (coordinates == null) return 0;
+        return operation.getWayCount(coordinates.getNumRows(), coordinates.getNumColumns());
+    }
+
+    @Override
+    public boolean isInDataSet() {
+        return false;
+    }
+
+    @Override
+    public void remove() {
+        if (!shown) return;
+        mapView.removeTemporaryLayer(this);
+        shown = false;
+        mapView.repaint();
+    }
+
+    /**
+     * Generate the grid currently drawn, and add it to the data set. Grids with more primitives than the commit chunk
+     * size are added in the background by a {@link GridCommitTask}.
+     *
+     * @param settings The settings to generate the grid with.
+     * @throws GridifyException Thrown if the grid cannot be generated.
+     */
+    @Override
+    public void commit(GridifySettings settings) throws GridifyException {
+        remove();
+        if (coordinates == null) return;
+
+        Collection<Command> commands = GridifyAction.calculateGridCommands(dataSet, inputData, coordinates,
+                operation, copyTags, deleteSourceWay, settings.getParallelThreshold(), settings.getSnapTolerance());
+        Command command = new SequenceCommand(tr("Create a grid of {0} elements", getWayCount()), commands);
+
+        AddGridCommand addGridCommand = (AddGridCommand) commands.iterator().next();
+        GridCommitTask.commit(command, addGridCommand, settings);
+    }
+
+    @Override
+    public void paint(Graphics2D g, MapView mv, Bounds bbox) {
+        if (path == null) return;
+
+        g.setColor(COLOR);
+        g.setStroke(STROKE);
+        g.draw(mv.getAffineTransform().createTransformedShape(path));
+    }
+
+    /**
+     * Every row and column of the lattice is a straight line, so the grid can be drawn from the points along its edges.
+     */
+    private static Path2D createPath(GridLattice coordinates) {
+        int numRows = coordinates.getNumRows();
+        int numColumns = coordinates.getNumColumns();
+        Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO, 2 * (numRows + numColumns + 2));
+
+        for (int col = 0; col <= numColumns; col++) {
+            line(path, coordinates, coordinates.index(col, 0), coordinates.index(col, numRows));
+        }
+        for (int row = 0; row <= numRows; row++) {
+            line(path, coordinates, coordinates.index(0, row), coordinates.index(numColumns, row));
+        }
+
+        return path;
+    }
+
+    private static void line(Path2D path, GridLattice coordinates, int from, int to) {
+        path.moveTo(coordinates.getEast(from), coordinates.getNorth(from));
+        path.lineTo(coordinates.getEast(to), coordinates.getNorth(to));
+    }
+}
@@ -0,0 +1,428 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.command.AddGridCommand;
+import nl.jeroenhoek.josm.gridify.command.AppliedSequenceCommand;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.TagMap;
+import org.openstreetmap.josm.data.osm.Way;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * The live preview of a grid in the edit data set.
+ * <p>
+ * Rather than removing the whole grid and generating it again every time the user changes a setting, the preview
+ * works out the difference between the grid currently shown and the requested one. Nodes and ways that exist in both
+ * grids are kept (and moved into place), so only the rows or columns that were added or removed cause primitives to
+ * be added to or removed from the data set.
+ * <p>
+ * The preview primitives are added to the data set directly, outside of the undo history. Use
+ * {@link #createCommand(GridifySettings)} to turn the final state of the preview into an undoable command, or {@link #remove()} to
+ * discard it.
+ */
+class GridPreview implements LivePreview {
+    private final DataSet dataSet;
+    private final InputData inputData;
+    // The tags of the source way, shared by all ways of the preview.
+    private final TagMap tags;
+
+    // The grid currently in the data set; lattice[column][row], including the corner nodes.
+    private Node[][] lattice;
+    // The coordinates the nodes of the lattice were last put at.
+    private GridLattice coordinates;
+    private final List<Way> ways = new ArrayList<>();
+    private Operation operation;
+    private boolean copyTags;
+
+    private Command deleteSourceWayCommand;
+
+    /**
+     * Constructs an empty preview.
+     *
+     * @param dataSet   The data set the preview is shown in.
+     * @param inputData The user-selected input data (nodes/way).
+     */
+    GridPreview(DataSet dataSet, InputData inputData) {
+        this.dataSet = dataSet;
+        this.inputData = inputData;
+        this.tags = new TagMap(inputData.getTags());
+    }
+
+    /**
+     * Bring the preview in line with the requested grid, within a single data set update, so listeners are notified
+     * once per update of the preview rather than once per primitive.
+     */
+    @Override
+    public void apply(GridLattice coordinates, Operation operation, boolean copyTags, boolean deleteSourceWay) {
+        dataSet.update(() -> update(coordinates, operation, copyTags, deleteSourceWay));
+    }
+
+    private void update(GridLattice coordinates, Operation operation, boolean copyTags, boolean deleteSourceWay) {
+        int numColumns = coordinates.getNumColumns();
+        int numRows = coordinates.getNumRows();
+
+        // The same lattice means the same nodes; only the ways or the source way options have changed.
+        if (coordinates == this.coordinates) {
+            updateWays(operation, copyTags);
+            updateSourceWay(deleteSourceWay);
+            return;
+        }
+
+        Node[][] oldLattice = lattice;
+        lattice = updateNodes(coordinates);
+        this.coordinates = coordinates;
+        updateWays(operation, copyTags);
+        if (oldLattice != null) {
+            removeStaleNodes(oldLattice, numRows, numColumns);
+        }
+        updateSourceWay(deleteSourceWay);
+    }
+
+    /**
+     * Remove all preview primitives from the data set, and restore the source way if it was deleted, within a single
+     * data set update. The preview can be applied again afterwards.
+     */
+    @Override
+    public void remove() {
+        dataSet.update(() -> {
+            if (deleteSourceWayCommand != null) {
+                deleteSourceWayCommand.undoCommand();
+                deleteSourceWayCommand = null;
+            }
+
+            for (int i = ways.size() - 1; i >= 0; i--) {
+                removeWay(ways.get(i));
+            }
+            ways.clear();
+            operation = null;
+
+            if (lattice != null) {
+                forEachNewNode(lattice, dataSet::removePrimitive);
+                lattice = null;
+            }
+            coordinates = null;
+        });
+    }
+
+    @Override
+    public boolean isInDataSet() {
+        return true;
+    }
+
+    /**
+     * Add the preview to the undo history as it is; see {@link #createCommand(GridifySettings)}.
+     *
+     * @param settings The settings to commit with; only the selection policy is used, because the grid has already
+     *                 been generated.
+     */
+    @Override
+    public void commit(GridifySettings settings) {
+        GridCommitTask.addToUndoHistory(createCommand(settings));
+    }
+
+    /**
+     * Turn the current state of the preview into a single undoable command, without removing the preview from the data
+     * set. The grid and the deletion of the source way are already applied, and creating the command selects the new
+     * ways according to the selection policy, so adding the command to the undo history changes nothing. Undoing the
+     * command removes the grid again. The generated ways already carry the tags of the source way if the user asked
+     * for these to be copied. If snapping is enabled, the new nodes along the edges are replaced by existing nodes
+     * nearby at this point; the preview can't be applied again afterwards.
+     *
+     * @param settings The settings providing the selection policy and the snap tolerance.
+     * @return A command representing the grid as it is in the data set.
+     */
+    Command createCommand(GridifySettings settings) {
+        List<Command> applied = new ArrayList<>();
+
+        List<Node> nodes = new ArrayList<>();
+        GridOutline outline = new GridOutline();
+        if (lattice != null) {
+            Set<Node> snapped = snapOutline(settings.getSnapTolerance());
+            forEachNewNode(lattice, node -> {
+                if (!snapped.contains(node)) {
+                    nodes.add(node);
+                }
+            });
+            List<List<Node>> columns = new ArrayList<>(lattice.length);
+            for (Node[] column : lattice) {
+                columns.add(Arrays.asList(column));
+            }
+            outline.addSides(columns);
+        }
+        AddGridCommand addGridCommand = new AddGridCommand(dataSet, nodes, ways, outline);
+        addGridCommand.setSelectionPolicy(settings.getSelectionPolicy(), settings.getSelectionLimit());
+        addGridCommand.markApplied();
+        applied.add(addGridCommand);
+
+        if (deleteSourceWayCommand != null) {
+            applied.add(deleteSourceWayCommand);
+        }
+
+        return new AppliedSequenceCommand(tr("Create a grid of {0} elements", ways.size()), applied, applied);
+    }
+
+    /**
+     * Replace the new nodes along the edges of the grid by existing nodes within the tolerance; see
+     * {@link PerimeterSnapper}. This only happens once the grid is committed, because the preview reuses its nodes
+     * from one update to the next.
+     *
+     * @return The existing nodes that are now part of the lattice.
+     */
+    private Set<Node> snapOutline(double tolerance) {
+        Set<Node> snapped = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (tolerance <= 0) return snapped;
+
+        Set<Node> own = Collections.newSetFromMap(new IdentityHashMap<>());
+        forEachNewNode(lattice, own::add);
+        int lastColumn = lattice.length - 1;
+        int lastRow = lattice[0].length - 1;
+        PerimeterSnapper snapper = PerimeterSnapper.search(
+                dataSet, inputData.getGridExtrema(), lastRow, lastColumn, tolerance, own);
+
+        Map<Node, Node> replacements = new IdentityHashMap<>();
+        for (int col = 0; col <= lastColumn; col++) {
+            for (int row = 0; row <= lastRow; row++) {
+                boolean edge = col == 0 || col == lastColumn || row == 0 || row == lastRow;
+                boolean corner = (col == 0 || col == lastColumn) && (row == 0 || row == lastRow);
+                if (!edge || corner) continue;
+
+                Node node = lattice[col][row];
+                EastNorth point = node.getEastNorth();
+                Node existing = snapper.snap(col, row, point.east(), point.north());
+                if (existing != null) {
+                    replacements.put(node, existing);
+                    lattice[col][row] = existing;
+                    snapped.add(existing);
+                }
+            }
+        }
+        if (replacements.isEmpty()) return snapped;
+
+        dataSet.update(() -> {
+            Set<Way> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Node node : replacements.keySet()) {
+                for (OsmPrimitive referrer : node.getReferrers()) {
+                    if (referrer instanceof Way) {
+                        affected.add((Way) referrer);
+                    }
+                }
+            }
+            for (Way way : affected) {
+                List<Node> wayNodes = new ArrayList<>(way.getNodes());
+                wayNodes.replaceAll(node -> replacements.getOrDefault(node, node));
+                way.setNodes(wayNodes);
+            }
+            replacements.keySet().forEach(dataSet::removePrimitive);
+        });
+        return snapped;
+    }
+
+    @Override
+    public int getWayCount() {
+        return ways.size();
+    }
+
+    /**
+     * Reuse, move, or create the nodes of the requested grid. Nodes are matched by their position in the lattice;
+     * the last column and row are always matched to the last column and row of the old grid, because that is where
+     * the corner nodes are.
+     */
+    private Node[][] updateNodes(GridLattice coordinates) {
+        GridExtrema extrema = inputData.getGridExtrema();
+        int numColumns = coordinates.getNumColumns();
+        int numRows = coordinates.getNumRows();
+
+        Node[][] newLattice = new Node[numColumns + 1][numRows + 1];
+        int created = 0;
+        newLattice[0][0] = extrema.one;
+        newLattice[numColumns][0] = extrema.two;
+        newLattice[numColumns][numRows] = extrema.three;
+        newLattice[0][numRows] = extrema.four;
+
+        for (int col = 0; col <= numColumns; col++) {
+            int oldCol = lattice == null ? -1 : matchIndex(col, numColumns, lattice.length - 1);
+
+            for (int row = 0; row <= numRows; row++) {
+                if (newLattice[col][row] != null) continue;
+
+                int index = coordinates.index(col, row);
+                double east = coordinates.getEast(index);
+                double north = coordinates.getNorth(index);
+                int oldRow = oldCol < 0 ? -1 : matchIndex(row, numRows, lattice[0].length - 1);
+
+                Node node;
+                if (oldRow < 0) {
+                    node = new Node(new EastNorth(east, north));
+                    dataSet.addPrimitive(node);
+                    created++;
+                } else {
+                    node = lattice[oldCol][oldRow];
+                    EastNorth current = node.getEastNorth();
+                    if (current.east() != east || current.north() != north) {
+                        node.setEastNorth(new EastNorth(east, north));
+                    }
+                }
+                newLattice[col][row] = node;
+            }
+        }
+
+        GridifyMetrics.getInstance().count(GridifyMetrics.Counter.PRIMITIVES_CREATED, created);
+        return newLattice;
+    }
+
+    /**
+     * Find the index in the old lattice of the node that can be reused at index {@code index} of the new lattice.
+     *
+     * @return The old index, or -1 if no node can be reused.
+     */
+    private static int matchIndex(int index, int newMax, int oldMax) {
+        if (index == newMax) return oldMax;
+        if (index == 0 || index < oldMax) return index;
+        return -1;
+    }
+
+    /**
+     * Remove the nodes of the old lattice that were not reused by {@link #updateNodes(GridLattice)}.
+     */
+    private void removeStaleNodes(Node[][] oldLattice, int numRows, int numColumns) {
+        int oldColumns = oldLattice.length - 1;
+        int oldRows = oldLattice[0].length - 1;
+
+        for (int col = 0; col <= oldColumns; col++) {
+            boolean columnReused = col == 0 || col == oldColumns || col < numColumns;
+            for (int row = 0; row <= oldRows; row++) {
+                boolean rowReused = row == 0 || row == oldRows || row < numRows;
+                if (!columnReused || !rowReused) {
+                    dataSet.removePrimitive(oldLattice[col][row]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reuse or create the ways of the requested grid. Ways are matched by their index; a reused way only gets new
+     * nodes if these differ from the nodes it already has.
+     */
+    private void updateWays(Operation operation, boolean copyTags) {
+        if (operation != this.operation) {
+            // The ways of one operation have nothing in common with those of the other.
+            for (int i = ways.size() - 1; i >= 0; i--) {
+                removeWay(ways.get(i));
+            }
+            ways.clear();
+            this.operation = operation;
+        }
+
+        int numRows = lattice[0].length - 1;
+        int numColumns = lattice.length - 1;
+        int wayCount = operation.getWayCount(numRows, numColumns);
+        List<List<Node>> columns = new ArrayList<>(lattice.length);
+        for (Node[] column : lattice) {
+            columns.add(Arrays.asList(column));
+        }
+
+        for (int i = wayCount; i < ways.size(); i++) {
+            removeWay(ways.get(i));
+        }
+        if (ways.size() > wayCount) {
+            ways.subList(wayCount, ways.size()).clear();
+        }
+
+        boolean tagsChanged = copyTags != this.copyTags;
+        this.copyTags = copyTags;
+
+        int created = 0;
+        for (int i = 0; i < wayCount; i++) {
+            List<Node> nodes = operation.getWayNodes(columns, i);
+            if (i < ways.size()) {
+                Way way = ways.get(i);
+                if (!hasNodes(way, nodes)) {
+                    way.setNodes(nodes);
+                }
+                if (tagsChanged) {
+                    applyTags(way);
+                }
+            } else {
+                Way way = new Way();
+                way.setNodes(nodes);
+                applyTags(way);
+                dataSet.addPrimitive(way);
+                ways.add(way);
+                created++;
+            }
+        }
+        GridifyMetrics.getInstance().count(GridifyMetrics.Counter.PRIMITIVES_CREATED, created);
+    }
+
+    /**
+     * Remove a way of the preview that won't be reused. Its nodes are detached first, so they don't keep the way as a
+     * referrer: the corners and the reused nodes of the lattice stay in the data set.
+     */
+    private void removeWay(Way way) {
+        way.setNodes(null);
+        dataSet.removePrimitive(way);
+    }
+
+    private void applyTags(Way way) {
+        if (copyTags && !tags.isEmpty()) {
+            way.setKeys(tags);
+        } else {
+            way.removeAll();
+        }
+    }
+
+    /**
+     * Delete or restore the source way. Like {@link GridCommandBuilder#build()}, a source way that is part of a
+     * relation is kept.
+     */
+    private void updateSourceWay(boolean deleteSourceWay) {
+        if (deleteSourceWay && deleteSourceWayCommand == null) {
+            inputData.getSourceWay().filter(GridCommandBuilder::canDeleteSourceWay).ifPresent(way -> {
+                deleteSourceWayCommand = new DeleteCommand(dataSet, way);
+                deleteSourceWayCommand.executeCommand();
+            });
+        } else if (!deleteSourceWay && deleteSourceWayCommand != null) {
+            deleteSourceWayCommand.undoCommand();
+            deleteSourceWayCommand = null;
+        }
+    }
+
+    private static boolean hasNodes(Way way, List<Node> nodes) {
+        if (way.getNodesCount() != nodes.size()) return false;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (way.getNode(i) != nodes.get(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Perform an action on each node of the lattice that was generated by the preview; i.e., all but the corners.
+     */
+    private static void forEachNewNode(Node[][] lattice, Consumer<Node> action) {
+        int lastColumn = lattice.length - 1;
+        int lastRow = lattice[0].length - 1;
+        for (int col = 0; col <= lastColumn; col++) {
+            for (int row = 0; row <= lastRow; row++) {
+                boolean corner = (col == 0 || col == lastColumn) && (row == 0 || row == lastRow);
+                if (!corner) {
+                    action.accept(lattice[col][row]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+/**
+ * Statistics of a grid, computed from its lattice rather than from the primitives generated for it.
+ * <p>
+ * The number of ways follows directly from the number of rows and columns. Cell sizes are measured over
+ * the whole lattice in a single pass, in projected units, and then converted to meters with the scale factor of the
+ * {@link GridGeometry} of the grid.
+ */
+public final class GridStatistics {
+    private final int numRows;
+    private final int numColumns;
+    private final int wayCount;
+
+    private final Range width;
+    private final Range height;
+    private final Range area;
+
+    private GridStatistics(int numRows, int numColumns, int wayCount, Range width, Range height, Range area) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.wayCount = wayCount;
+        this.width = width;
+        this.height = height;
+        this.area = area;
+    }
+
+    /**
+     * Compute the statistics of a grid. This doesn't touch any primitives, so it is safe to call from a worker thread.
+     *
+     * @param lattice   The coordinates of the grid.
+     * @param geometry  The corners the lattice was computed from.
+     * @param operation The operation type (blocks or lines).
+     * @return The statistics.
+     */
+    public static GridStatistics compute(GridLattice lattice, GridGeometry geometry, Operation operation) {
+        int numRows = lattice.getNumRows();
+        int numColumns = lattice.getNumColumns();
+        GridStatistics statistics = new GridStatistics(numRows, numColumns,
+                operation.getWayCount(numRows, numColumns), new Range(), new Range(), new Range());
+
+        double scale = geometry.getMetersPerUnit();
+
+        // Every point is the top-left corner of the horizontal edge to its right, the vertical edge below it, and the
+        // cell in between, if these exist.
+        for (int col = 0; col <= numColumns; col++) {
+            for (int row = 0; row <= numRows; row++) {
+                int topLeft = lattice.index(col, row);
+                if (col < numColumns) {
+                    statistics.width.add(scale * distance(lattice, topLeft, lattice.index(col + 1, row)));
+                }
+                if (row < numRows) {
+                    statistics.height.add(scale * distance(lattice, topLeft, lattice.index(col, row + 1)));
+                }
+                if (col < numColumns && row < numRows) {
+                    statistics.area.add(scale * scale * area(lattice,
+                            topLeft,
+                            lattice.index(col + 1, row),
+                            lattice.index(col + 1, row + 1),
+                            lattice.index(col, row + 1)));
+                }
+            }
+        }
+
+        return statistics;
+    }
+
+    private static double distance(GridLattice lattice, int a, int b) {
+        return Math.hypot(lattice.getEast(b) - lattice.getEast(a), lattice.getNorth(b) - lattice.getNorth(a));
+    }
+
+    /**
+     * Area of the quadrilateral a-b-c-d: half the cross product of its diagonals.
+     */
+    private static double area(GridLattice lattice, int a, int b, int c, int d) {
+        double diagonals = cross(lattice.getEast(c) - lattice.getEast(a), lattice.getNorth(c) - lattice.getNorth(a),
+                lattice.getEast(d) - lattice.getEast(b), lattice.getNorth(d) - lattice.getNorth(b));
+        return Math.abs(diagonals) / 2;
+    }
+
+    private static double cross(double x1, double y1, double x2, double y2) {
+        return x1 * y2 - y1 * x2;
+    }
+
+    /**
+     * The statistics of the same grid, generated with another operation. The cell sizes don't depend on the
+     * operation, so they are shared rather than measured again.
+     *
+     * @param operation The operation type (blocks or lines).
+     * @return The statistics.
+     */
+    public GridStatistics withOperation(Operation operation) {
+        return new GridStatistics(numRows, numColumns,
+                operation.getWayCount(numRows, numColumns), width, height, area);
+    }
+
+    /**
+     * The number of ways the grid consists of.
+     *
+     * @return The number of ways.
+     */
+    public int getWayCount() {
+        return wayCount;
+    }
+
+    /**
+     * The lengths in meters of the edges between neighbouring columns.
+     *
+     * @return The range of cell widths.
+     */
+    public Range getWidth() {
+        return width;
+    }
+
+    /**
+     * The lengths in meters of the edges between neighbouring rows.
+     *
+     * @return The range of cell heights.
+     */
+    public Range getHeight() {
+        return height;
+    }
+
+    /**
+     * The areas in square meters of the cells.
+     *
+     * @return The range of cell areas.
+     */
+    public Range getArea() {
+        return area;
+    }
+
+    /**
+     * Minimum, maximum, and mean of a number of measurements.
+     */
+    public static final class Range {
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+        private int count;
+
+        void add(double value) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+        }
+
+        /**
+         * The smallest measurement.
+         *
+         * @return The minimum, or zero if there are no measurements.
+         */
+        public double getMin() {
+            return count == 0 ? 0 : min;
+        }
+
+        /**
+         * The largest measurement.
+         *
+         * @return The maximum, or zero if there are no measurements.
+         */
+        public double getMax() {
+            return count == 0 ? 0 : max;
+        }
+
+        /**
+         * The average of all measurements.
+         *
+         * @return The mean, or zero if there are no measurements.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+}
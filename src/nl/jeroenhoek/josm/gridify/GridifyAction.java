@@ -1,26 +1,23 @@
 // License: GPL. For details, see LICENSE file.
 package nl.jeroenhoek.josm.gridify;
 
+import nl.jeroenhoek.josm.gridify.command.AddGridCommand;
 import nl.jeroenhoek.josm.gridify.exception.GridifyException;
 import nl.jeroenhoek.josm.gridify.exception.UserCancelledException;
 import nl.jeroenhoek.josm.gridify.exception.UserInputException;
 import nl.jeroenhoek.josm.gridify.ui.GridifySettingsDialog;
 import org.openstreetmap.josm.actions.JosmAction;
-import org.openstreetmap.josm.command.AddCommand;
-import org.openstreetmap.josm.command.ChangePropertyCommand;
 import org.openstreetmap.josm.command.Command;
-import org.openstreetmap.josm.command.DeleteCommand;
-import org.openstreetmap.josm.command.SelectCommand;
 import org.openstreetmap.josm.command.SequenceCommand;
 import org.openstreetmap.josm.data.SystemOfMeasurement;
-import org.openstreetmap.josm.data.UndoRedoHandler;
-import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.TagMap;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.ConditionalOptionPaneUtil;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.Notification;
 import org.openstreetmap.josm.tools.Logging;
 import org.openstreetmap.josm.tools.Shortcut;
 import org.openstreetmap.josm.tools.SubclassFilteredCollection;
@@ -34,11 +31,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import static nl.jeroenhoek.josm.gridify.exception.UserInputException.error;
 import static org.openstreetmap.josm.tools.I18n.tr;
+import static org.openstreetmap.josm.tools.I18n.trn;
 
 /**
  * The Gridify action opens a modal dialog where the user can configure the operation of this plugin, and execute it.
@@ -46,8 +44,6 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 public class GridifyAction extends JosmAction {
     static final String DESCRIPTION = tr("Generate a grid of ways from four nodes.");
 
-    private final List<Command> currentPreviewCommands = new ArrayList<>();
-
     public GridifyAction() {
         super(
                 tr("Gridify"),
@@ -100,169 +96,343 @@ public class GridifyAction extends JosmAction {
      */
     void performGridifyAction(DataSet dataSet) throws GridifyException {
         if (dataSet == null) throw new GridifyException("Called with null data-set.");
+        GridifyMetrics.getInstance().reset();
 
         Collection<OsmPrimitive> selection = dataSet.getSelected();
 
+        // Many ways?
+        if (selection.size() > 1 && Utils.filteredCollection(selection, Way.class).size() == selection.size()) {
+            List<InputData> inputs = batchInputDataFromSelection(selection)
+                    .orElseThrow(error(tr("Select four nodes, or ways consisting of four nodes each.")));
+            performBatchGridifyAction(dataSet, inputs);
+            return;
+        }
+
+        // A closed way of any other shape?
+        Optional<PolygonGrid> polygon = polygonGridFromSelection(selection);
+        if (polygon.isPresent()) {
+            performPolygonGridifyAction(dataSet, polygon.get());
+            return;
+        }
+
         InputData inputData = inputDataFromSelection(selection)
-                .orElseThrow(error(tr("Select four nodes, or a way consisting of four nodes.")));
+                .orElseThrow(error(tr("Select four nodes, a way consisting of four nodes, or a closed way.")));
 
         GridifySettings settings = new GridifySettings();
 
         GridifySettingsDialog dialog = new GridifySettingsDialog(inputData, settings);
-
-        dialog.addChangeListener(() -> updatePreview(dialog, dataSet, inputData));
+        LivePreview preview = createPreview(dataSet, inputData, settings);
+        PreviewScheduler scheduler = new PreviewScheduler(preview, inputData,
+                () -> new PreviewScheduler.Request(
+                        dialog.getRowCount(),
+                        dialog.getColumnCount(),
+                        dialog.getOperation(),
+                        dialog.copyTags(),
+                        dialog.deleteSourceWay()),
+                statistics -> updateDialogInfo(dialog, statistics),
+                settings.getParallelThreshold());
+
+        dialog.addChangeListener(scheduler::schedule);
 
         // Trigger initial calculation
-        updatePreview(dialog, dataSet, inputData);
+        scheduler.flush();
 
         dialog.showDialog();
 
         // Only the OK button returns 1, the rest means 'Cancel' or a closed dialog window.
-        if (dialog.getValue() != 1) {
-            // Undo any remaining preview changes
-            ListIterator<Command> it = currentPreviewCommands.listIterator(currentPreviewCommands.size());
-            while (it.hasPrevious()) {
-                it.previous().undoCommand();
-            }
-            currentPreviewCommands.clear();
-
-            throw new UserCancelledException();
+        boolean confirmed = dialog.getValue() == 1;
+        if (confirmed) {
+            // Make sure the grid reflects the last change made, even if its update was still underway.
+            scheduler.flush();
         }
+        scheduler.shutdown();
 
-        // On OK, we want to make a single sequence command appear in the undo history.
-        // The commands are already executed, so undo them before adding UndoRedoHandler, because it executes them again.
-        List<Command> finalCommands = new ArrayList<>(currentPreviewCommands);
+        // Grids that are only drawn have yet to be generated, and may not fit.
+        if (confirmed && !preview.isInDataSet()) {
+            confirmed = confirmMemoryUse(
+                    GridCostEstimate.of(dialog.getRowCount(), dialog.getColumnCount(), dialog.getOperation()));
+        }
 
-        ListIterator<Command> it = finalCommands.listIterator(finalCommands.size());
-        while (it.hasPrevious()) {
-            it.previous().undoCommand();
+        if (!confirmed) {
+            preview.remove();
+            throw new UserCancelledException();
         }
 
-        currentPreviewCommands.clear();
-        UndoRedoHandler.getInstance().add(new SequenceCommand(tr("Create a grid of {0} elements", getCreateWayCount(finalCommands)), finalCommands));
+        // On OK, we want to make a single sequence command appear in the undo history.
+        preview.commit(settings);
+        notifyKeptSourceWays(Collections.singletonList(inputData), dialog.deleteSourceWay());
 
-        // Update settings properties now that we are about to commence the operation.
-        // This way the user gets to keep the last settings they entered.
-        settings.setNumRows(dialog.getRowCount());
-        settings.setNumColumns(dialog.getColumnCount());
-        settings.setDeleteSource(dialog.deleteSourceWay());
-        settings.setCopyTagsFromSource(dialog.copyTags());
-        settings.setOperation(dialog.getOperation());
+        saveSettings(settings, dialog);
     }
 
     /**
-     * Updates the preview by recalculating and applying grid commands.
+     * Generate grids for many source ways at once, with the settings the user picks in a single dialog. The dialog
+     * shows the first source way. The grids are added as a single command.
      *
-     * @param dialog    The settings dialog
-     * @param dataSet   The data set
-     * @param inputData The input data (selected nodes/way)
+     * @param dataSet The current dataset.
+     * @param inputs  The source ways.
+     * @throws GridifyException Thrown if an error occurs during the operation.
      */
-    private void updatePreview(GridifySettingsDialog dialog, DataSet dataSet, InputData inputData) {
-        // 1. Undo previous preview
-        ListIterator<Command> it = currentPreviewCommands.listIterator(currentPreviewCommands.size());
-        while (it.hasPrevious()) {
-            it.previous().undoCommand();
-        }
-        currentPreviewCommands.clear();
+    void performBatchGridifyAction(DataSet dataSet, List<InputData> inputs) throws GridifyException {
+        GridifySettings settings = new GridifySettings();
+        double targetCellSize = settings.getTargetCellSize();
 
-        // 2. Calculate new grid
-        Collection<Command> newCommands;
-        try {
-            newCommands = calculateGridCommands(dataSet, inputData,
-                    dialog.getRowCount(),
-                    dialog.getColumnCount(),
-                    dialog.getOperation(),
-                    dialog.copyTags(),
-                    dialog.deleteSourceWay());
-        } catch (GridifyException e) {
-            Logging.warn(e.getMessage());
-            return;
+        GridifySettingsDialog dialog = new GridifySettingsDialog(inputs.get(0), settings);
+        Supplier<GridBatch> batch = () -> new GridBatch(
+                inputs, dialog.getRowCount(), dialog.getColumnCount(), targetCellSize);
+
+        dialog.addChangeListener(() -> updateBatchDialogInfo(dialog, batch.get(), inputs.size(), targetCellSize));
+        updateBatchDialogInfo(dialog, batch.get(), inputs.size(), targetCellSize);
+
+        dialog.showDialog();
+
+        // Only the OK button returns 1, the rest means 'Cancel' or a closed dialog window.
+        if (dialog.getValue() != 1) {
+            throw new UserCancelledException();
         }
 
-        // 3. Apply new commands (but don't add to UndoRedoHandler yet)
-        for (Command cmd : newCommands) {
-            cmd.executeCommand();
+        GridBatch finalBatch = batch.get();
+        if (!confirmMemoryUse(finalBatch.getCostEstimate(dialog.getOperation()))) {
+            throw new UserCancelledException();
         }
-        currentPreviewCommands.addAll(newCommands);
 
-        // 4. Update the UI count and cell size
-        updateDialogInfo(dialog, newCommands, inputData);
+        Collection<Command> commands = finalBatch.createCommands(dataSet, dialog.getOperation(), dialog.copyTags(),
+                dialog.deleteSourceWay(), settings.getParallelThreshold(), settings.getSnapTolerance());
+        GridCommitTask.commit(new SequenceCommand(finalBatch.getDescription(), commands),
+                (AddGridCommand) commands.iterator().next(), settings);
+        notifyKeptSourceWays(inputs, dialog.deleteSourceWay());
+
+        saveSettings(settings, dialog);
     }
 
     /**
-     * Calculates the JOSM commands needed to generate the grid.
+     * Generate a grid for a closed way of any shape, clipped against the way. The dialog shows the rectangle the
+     * lattice spans. There is no live preview; the grid is only generated once the user confirms.
      *
-     * @param dataSet         The dataset to operate on.
-     * @param inputData       The user-selected input data (nodes/way).
-     * @param numRows         Number of rows in the grid.
-     * @param numColumns      Number of columns in the grid.
-     * @param operation       The operation type (blocks or lines).
-     * @param copyTags        Whether to copy tags from the source way.
-     * @param deleteSourceWay Whether to delete the source way after the operation.
-     * @return A collection of commands that, when executed, generate the grid.
-     * @throws GridifyException Thrown if there is an error in the grid calculation.
+     * @param dataSet The current dataset.
+     * @param polygon The closed way.
+     * @throws GridifyException Thrown if an error occurs during the operation.
      */
-    Collection<Command> calculateGridCommands(DataSet dataSet, InputData inputData, int numRows, int numColumns,
-                                              Operation operation, boolean copyTags, boolean deleteSourceWay) throws GridifyException {
-        GridExtrema extrema = inputData.getGridExtrema();
-        Collection<Command> commands = new ArrayList<>();
+    void performPolygonGridifyAction(DataSet dataSet, PolygonGrid polygon) throws GridifyException {
+        GridifySettings settings = new GridifySettings();
 
-        List<Node> nodesTopBetween = nodesBetween(extrema.one, extrema.two, numColumns - 1);
-        addToDataSet(commands, dataSet, nodesTopBetween);
-        List<Node> nodesTop = combine(extrema.one, nodesTopBetween, extrema.two);
+        GridifySettingsDialog dialog = new GridifySettingsDialog(polygon.getInputData(), settings);
+        dialog.addChangeListener(() -> updatePolygonDialogInfo(dialog, polygon));
+        updatePolygonDialogInfo(dialog, polygon);
 
-        List<Node> nodesBottomBetween = nodesBetween(extrema.four, extrema.three, numColumns - 1);
-        addToDataSet(commands, dataSet, nodesBottomBetween);
-        List<Node> nodesBottom = combine(extrema.four, nodesBottomBetween, extrema.three);
+        dialog.showDialog();
 
-        List<List<Node>> columns = new ArrayList<>(numColumns + 1);
+        // Only the OK button returns 1, the rest means 'Cancel' or a closed dialog window.
+        if (dialog.getValue() != 1) {
+            throw new UserCancelledException();
+        }
 
-        for (int i = 0; i < numColumns + 1; i++) {
-            Node start = nodesTop.get(i);
-            Node stop = nodesBottom.get(i);
-            List<Node> nodesBetween = nodesBetween(start, stop, numRows - 1);
-            addToDataSet(commands, dataSet, nodesBetween);
-            List<Node> column = combine(start, nodesBetween, stop);
-            columns.add(column);
+        int numRows = dialog.getRowCount();
+        int numColumns = dialog.getColumnCount();
+        Operation operation = dialog.getOperation();
+        if (!confirmMemoryUse(GridCostEstimate.of(numRows, numColumns, operation))) {
+            throw new UserCancelledException();
         }
 
-        List<Way> ways = operation.perform(columns);
-        addToDataSet(commands, dataSet, ways);
-        if (!inputData.getTags().isEmpty() && copyTags) {
-            commands.add(new ChangePropertyCommand(dataSet, ways, inputData.getTags()));
+        Collection<Command> commands = polygon.createCommands(dataSet, numRows, numColumns, operation,
+                dialog.copyTags(), dialog.deleteSourceWay(), settings.getParallelThreshold());
+        String description = tr("Create a grid of {0} elements", polygon.getWayCount());
+        GridCommitTask.commit(new SequenceCommand(description, commands),
+                (AddGridCommand) commands.iterator().next(), settings);
+        notifyKeptSourceWays(Collections.singletonList(polygon.getInputData()), dialog.deleteSourceWay());
+
+        saveSettings(settings, dialog);
+    }
+
+    /**
+     * Tell the user about source ways that were not deleted although they asked for it, because they are part of a
+     * relation; see {@link GridCommandBuilder#canDeleteSourceWay(Way)}.
+     *
+     * @param inputs          The input data of the grids.
+     * @param deleteSourceWay Whether the user asked to delete the source ways.
+     */
+    private static void notifyKeptSourceWays(Collection<InputData> inputs, boolean deleteSourceWay) {
+        if (!deleteSourceWay) return;
+
+        int kept = 0;
+        for (InputData inputData : inputs) {
+            if (inputData.getSourceWay().filter(way -> !GridCommandBuilder.canDeleteSourceWay(way)).isPresent()) {
+                kept++;
+            }
         }
+        if (kept > 0) {
+            new Notification(trn(
+                    "The source way is part of a relation, so it was not deleted.",
+                    "{0} source ways are part of a relation, so they were not deleted.",
+                    kept, kept)).show();
+        }
+    }
 
-        if (deleteSourceWay) {
-            inputData.getSourceWay().ifPresent(way -> commands.add(new DeleteCommand(dataSet, way)));
+    /**
+     * Pick the preview for a grid. Grids are previewed in the data set, unless the user prefers an overlay, or the grid
+     * is too large; see {@link AdaptivePreview}. Without a map view there is nothing to draw an overlay on.
+     */
+    private static LivePreview createPreview(DataSet dataSet, InputData inputData, GridifySettings settings) {
+        if (!MainApplication.isDisplayingMapView()) {
+            return new GridPreview(dataSet, inputData);
         }
 
-        commands.add(new SelectCommand(dataSet, new ArrayList<>(ways)));
+        GridOverlay overlay = new GridOverlay(MainApplication.getMap().mapView, dataSet, inputData);
+        if (settings.getPreviewMode() == PreviewMode.OVERLAY) {
+            return overlay;
+        }
+        return new AdaptivePreview(new GridPreview(dataSet, inputData), overlay, settings.getOverlayThreshold());
+    }
 
-        return commands;
+    /**
+     * Warn the user if the grid about to be generated probably doesn't fit in the memory still available.
+     *
+     * @param estimate The estimated cost of the grid.
+     * @return False if the user decided not to generate the grid.
+     */
+    private static boolean confirmMemoryUse(GridCostEstimate estimate) {
+        if (estimate.fitsInAvailableMemory()) return true;
+
+        long megabyte = 1024 * 1024;
+        return ConditionalOptionPaneUtil.showConfirmationDialog(
+                "gridify_memory_warning",
+                MainApplication.getMainFrame(),
+                tr("This grid consists of {0} new nodes and ways, which take up about {1} MB of memory. "
+                                + "Only {2} MB is available, so JOSM may run out of memory. Continue anyway?",
+                        estimate.getPrimitiveCount(),
+                        estimate.getHeapBytes() / megabyte,
+                        GridCostEstimate.getAvailableHeapBytes() / megabyte),
+                tr("Large grid"),
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE,
+                JOptionPane.YES_OPTION);
     }
 
-    private void updateDialogInfo(GridifySettingsDialog dialog, Collection<Command> commands, InputData inputData) {
-        long wayCount = getCreateWayCount(commands);
-        dialog.setGridCount((int) wayCount);
+    /**
+     * Update settings properties now that we are about to commence the operation. This way the user gets to keep the
+     * last settings they entered.
+     */
+    private static void saveSettings(GridifySettings settings, GridifySettingsDialog dialog) {
+        settings.setNumRows(dialog.getRowCount());
+        settings.setNumColumns(dialog.getColumnCount());
+        settings.setDeleteSource(dialog.deleteSourceWay());
+        settings.setCopyTagsFromSource(dialog.copyTags());
+        settings.setOperation(dialog.getOperation());
+    }
 
+    /**
+     * Calculates the JOSM commands needed to generate the grid.
+     *
+     * @param dataSet           The dataset to operate on.
+     * @param inputData         The user-selected input data (nodes/way).
+     * @param numRows           Number of rows in the grid.
+     * @param numColumns        Number of columns in the grid.
+     * @param operation         The operation type (blocks or lines).
+     * @param copyTags          Whether to copy tags from the source way.
+     * @param deleteSourceWay   Whether to delete the source way after the operation.
+     * @param parallelThreshold Minimum number of cells for the grid to be generated on multiple threads.
+     * @return A collection of commands that, when executed, generate the grid.
+     * @throws GridifyException Thrown if there is an error in the grid calculation.
+     */
+    static Collection<Command> calculateGridCommands(DataSet dataSet, InputData inputData, int numRows, int numColumns,
+                                                     Operation operation, boolean copyTags, boolean deleteSourceWay,
+                                                     int parallelThreshold) throws GridifyException {
+        GridLattice lattice = GridLattice.compute(inputData.getGridExtrema(), numRows, numColumns, parallelThreshold);
+        return calculateGridCommands(dataSet, inputData, lattice, operation, copyTags, deleteSourceWay, parallelThreshold,
+                0);
+    }
+
+    /**
+     * Calculates the JOSM commands needed to generate the grid from a precomputed lattice. The first command returned
+     * is the {@link AddGridCommand}.
+     *
+     * @param dataSet           The dataset to operate on.
+     * @param inputData         The user-selected input data (nodes/way).
+     * @param lattice           The coordinates of the grid.
+     * @param operation         The operation type (blocks or lines).
+     * @param copyTags          Whether to copy tags from the source way.
+     * @param deleteSourceWay   Whether to delete the source way after the operation.
+     * @param parallelThreshold Minimum number of cells for the grid to be generated on multiple threads.
+     * @param snapTolerance     Distance in meters within which existing nodes along the edges of the grid are used
+     *                          instead of new nodes, or zero to always create new nodes.
+     * @return A collection of commands that, when executed, generate the grid.
+     * @throws GridifyException Thrown if there is an error in the grid calculation.
+     */
+    static Collection<Command> calculateGridCommands(DataSet dataSet, InputData inputData, GridLattice lattice,
+                                                     Operation operation, boolean copyTags, boolean deleteSourceWay,
+                                                     int parallelThreshold, double snapTolerance)
+            throws GridifyException {
+        GridCommandBuilder builder = new GridCommandBuilder(dataSet, inputData, copyTags, deleteSourceWay);
         GridExtrema extrema = inputData.getGridExtrema();
-        GridExtrema.CellDimensions dims = extrema.getAverageCellDimensions(dialog.getRowCount(), dialog.getColumnCount());
+        PerimeterSnapper snapper = snapTolerance <= 0 ? null : PerimeterSnapper.search(dataSet, extrema,
+                lattice.getNumRows(), lattice.getNumColumns(), snapTolerance, Collections.emptySet());
+        List<List<Node>> columns = lattice.createNodes(extrema, snapper, builder::addNode);
+        builder.addOutline(columns);
+        operation.perform(columns, parallelThreshold, builder);
+        return builder.build();
+    }
+
+    private void updateDialogInfo(GridifySettingsDialog dialog, GridStatistics statistics) {
+        dialog.setGridCount(statistics.getWayCount());
 
         SystemOfMeasurement som = SystemOfMeasurement.getSystemOfMeasurement();
-        String info = tr("Average cell size: {0} \u00d7 {1} (Area: {2})",
-                som.getDistText(dims.height),
-                som.getDistText(dims.width),
-                som.getAreaText(dims.area));
+        GridStatistics.Range area = statistics.getArea();
+        String info = tr("Average cell size: {0} \u00d7 {1} (Area: {2}, from {3} to {4})",
+                som.getDistText(statistics.getHeight().getMean()),
+                som.getDistText(statistics.getWidth().getMean()),
+                som.getAreaText(area.getMean()),
+                som.getAreaText(area.getMin()),
+                som.getAreaText(area.getMax()));
         dialog.setCellSize(info);
+        dialog.setDiagnostics(GridifyMetrics.getInstance().toString());
     }
 
-    private static long getCreateWayCount(Collection<Command> commands) {
-        return commands.stream()
-                .filter(c -> c instanceof AddCommand)
-                .map(c -> (AddCommand) c)
-                .flatMap(c -> c.getParticipatingPrimitives().stream())
-                .filter(p -> p instanceof Way)
-                .count();
+    private void updateBatchDialogInfo(GridifySettingsDialog dialog, GridBatch batch, int gridCount,
+                                       double targetCellSize) {
+        dialog.setGridCount((int) Math.min(Integer.MAX_VALUE, batch.getWayCount(dialog.getOperation())));
+
+        String info = targetCellSize > 0
+                ? trn("{0} grid, with cells of about {1}", "{0} grids, with cells of about {1}", gridCount, gridCount,
+                        SystemOfMeasurement.getSystemOfMeasurement().getDistText(targetCellSize))
+                : trn("{0} grid", "{0} grids", gridCount, gridCount);
+        dialog.setCellSize(info);
+        dialog.setDiagnostics(GridifyMetrics.getInstance().toString());
+    }
+
+    private void updatePolygonDialogInfo(GridifySettingsDialog dialog, PolygonGrid polygon) {
+        dialog.setGridCount(
+                polygon.estimateWayCount(dialog.getRowCount(), dialog.getColumnCount(), dialog.getOperation()));
+        dialog.setCellSize(tr("Cells are clipped to the outline of the way."));
+        dialog.setDiagnostics(GridifyMetrics.getInstance().toString());
+    }
+
+    /**
+     * Turn a selection of a single closed way into a grid clipped against that way.
+     *
+     * @param selection The selected primitives.
+     * @return The polygon grid, or an empty optional if the selection isn't a closed way, or if the way consists of
+     * four nodes.
+     */
+    Optional<PolygonGrid> polygonGridFromSelection(Collection<OsmPrimitive> selection) {
+        if (selection.size() != 1) return Optional.empty();
+        SubclassFilteredCollection<OsmPrimitive, Way> ways = Utils.filteredCollection(selection, Way.class);
+        return ways.isEmpty() ? Optional.empty() : PolygonGrid.from(ways.iterator().next());
+    }
+
+    /**
+     * Turn a selection of ways into the input data of a batch of grids.
+     *
+     * @param selection The selected primitives.
+     * @return The input data of each way, or an empty optional if any of the ways doesn't consist of four nodes.
+     */
+    Optional<List<InputData>> batchInputDataFromSelection(Collection<OsmPrimitive> selection) {
+        List<InputData> inputs = new ArrayList<>(selection.size());
+        for (Way way : Utils.filteredCollection(selection, Way.class)) {
+            Optional<InputData> inputData = inputDataFromWay(way);
+            if (!inputData.isPresent()) return Optional.empty();
+            inputs.add(inputData.get());
+        }
+        return Optional.of(inputs);
     }
 
     Optional<InputData> inputDataFromSelection(Collection<OsmPrimitive> selection) {
@@ -280,73 +450,22 @@ public class GridifyAction extends JosmAction {
         if (selection.size() == 1) {
             SubclassFilteredCollection<OsmPrimitive, Way> ways = Utils.filteredCollection(selection, Way.class);
             if (ways.size() == 1) {
-                Way way = ways.iterator().next();
-                List<Node> nodes = way.getNodes();
-                // In closed ways consisting of four nodes the first node is repeated as the last node,
-                // so #getNodes returns 5 nodes for such closed ways.
-                if (nodes.size() == (way.isClosed() ? 5 : 4)) {
-                    GridExtrema extrema = GridExtrema.from(nodes.get(0), nodes.get(1), nodes.get(2), nodes.get(3));
-                    TagMap tags = way.getKeys();
-                    return Optional.of(new InputData(extrema, way, tags));
-                }
+                return inputDataFromWay(ways.iterator().next());
             }
         }
 
         return Optional.empty();
     }
 
-    /**
-     * Interpolates a specified number of nodes between two existing nodes.
-     *
-     * @param start The starting node.
-     * @param stop  The ending node.
-     * @param n     The number of nodes to create between start and stop.
-     * @return A list of newly created nodes.
-     */
-    @SuppressWarnings("MixedMutabilityReturnType")
-    List<Node> nodesBetween(Node start, Node stop, int n) {
-        if (n < 1) return Collections.emptyList();
-
-        EastNorth startCoords = start.getEastNorth();
-        EastNorth stopCoords = stop.getEastNorth();
-
-        List<Node> nodes = new ArrayList<>();
-        for (int i = 0; i < n; i++) {
-            double fraction = (i + 1.0) / (n + 1.0);
-            EastNorth intCoords = startCoords.interpolate(stopCoords, fraction);
-            nodes.add(new Node(intCoords));
-        }
-
-        return nodes;
-    }
-
-    /**
-     * Helper to add primitives to a collection of AddCommands.
-     *
-     * @param commands   The collection to add commands to.
-     * @param dataSet    The data set.
-     * @param primitives The primitives to be added.
-     */
-    void addToDataSet(Collection<Command> commands, DataSet dataSet, List<? extends OsmPrimitive> primitives) {
-        for (OsmPrimitive primitive : primitives) {
-            commands.add(new AddCommand(dataSet, primitive));
+    private static Optional<InputData> inputDataFromWay(Way way) {
+        List<Node> nodes = way.getNodes();
+        // In closed ways consisting of four nodes the first node is repeated as the last node,
+        // so #getNodes returns 5 nodes for such closed ways.
+        if (nodes.size() == (way.isClosed() ? 5 : 4)) {
+            GridExtrema extrema = GridExtrema.from(nodes.get(0), nodes.get(1), nodes.get(2), nodes.get(3));
+            TagMap tags = way.getKeys();
+            return Optional.of(new InputData(extrema, way, tags));
         }
+        return Optional.empty();
     }
-
-    /**
-     * Combines a start node, a list of intermediate nodes, and a stop node into a single list.
-     *
-     * @param start   The start node.
-     * @param between The list of nodes in between.
-     * @param stop    The stop node.
-     * @return A combined list of nodes.
-     */
-    List<Node> combine(Node start, List<Node> between, Node stop) {
-        List<Node> nodes = new ArrayList<>();
-        nodes.add(start);
-        nodes.addAll(between);
-        nodes.add(stop);
-        return nodes;
-    }
-
 }
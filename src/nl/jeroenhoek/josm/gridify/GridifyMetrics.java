@@ -0,0 +1,184 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.openstreetmap.josm.tools.Logging;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each phase of generating a grid, and counts of the work done, for diagnosing slow grids without a
+ * profiler.
+ * <p>
+ * Phases may run on worker threads and on the common {@link java.util.concurrent.ForkJoinPool}, so all measurements
+ * are thread-safe. Measuring a phase costs two calls to {@link System#nanoTime()}, once per grid rather than once per
+ * primitive. The measurements are reset every time the Gridify action starts, written to the log at debug level, and
+ * shown in the dialog when debug logging is enabled.
+ */
+public final class GridifyMetrics {
+    private static final GridifyMetrics INSTANCE = new GridifyMetrics();
+
+    /**
+     * The phases of generating a grid.
+     */
+    public enum Phase {
+        /** Computing the coordinates of the lattice. */
+        INTERPOLATION("interpolation"),
+        /** Clipping the lattice against the outline of a closed way. */
+        CLIPPING("clipping"),
+        /** Searching the data set for existing nodes along the edges of the grid. */
+        SNAPPING("snapping"),
+        /** Creating the nodes of the grid. */
+        NODES("nodes"),
+        /** Creating the ways of the grid; {@link Operation#perform(java.util.List, int, java.util.function.Consumer)}. */
+        WAYS("ways"),
+        /** Building the commands that add the grid to the data set. */
+        COMMANDS("commands"),
+        /** Adding the primitives of the grid to the data set. */
+        EXECUTION("execution"),
+        /** Adding the command to the undo history, including executing what it hadn't executed yet. */
+        UNDO_HISTORY("undo history"),
+        /** Updating the live preview with a computed lattice. */
+        PREVIEW("preview");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * The things that are counted while generating a grid.
+     */
+    public enum Counter {
+        /** New nodes and ways, including those created for the live preview. */
+        PRIMITIVES_CREATED("primitives created"),
+        /** Commands added to the undo history. */
+        COMMANDS_EXECUTED("commands executed"),
+        /** Updates of the live preview. */
+        PREVIEW_RECOMPUTES("preview recomputes");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    private final LongAdder[] nanos = adders(Phase.values().length);
+    private final LongAdder[] calls = adders(Phase.values().length);
+    private final LongAdder[] counts = adders(Counter.values().length);
+
+    private GridifyMetrics() {
+        // Use getInstance().
+    }
+
+    /**
+     * The measurements of the current run of the Gridify action.
+     *
+     * @return The metrics.
+     */
+    public static GridifyMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The start time of a phase, to pass to {@link #record(Phase, long)} once it is done.
+     *
+     * @return The current value of {@link System#nanoTime()}.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record that a phase has been completed.
+     *
+     * @param phase The phase.
+     * @param start The start time of the phase, as returned by {@link #start()}.
+     */
+    public void record(Phase phase, long start) {
+        nanos[phase.ordinal()].add(System.nanoTime() - start);
+        calls[phase.ordinal()].increment();
+    }
+
+    /**
+     * Add to one of the counters.
+     *
+     * @param counter The counter.
+     * @param amount  The amount to add.
+     */
+    public void count(Counter counter, long amount) {
+        counts[counter.ordinal()].add(amount);
+    }
+
+    /**
+     * Clear all measurements.
+     */
+    public void reset() {
+        for (LongAdder adder : nanos) adder.reset();
+        for (LongAdder adder : calls) adder.reset();
+        for (LongAdder adder : counts) adder.reset();
+    }
+
+    /**
+     * Total time spent in a phase.
+     *
+     * @param phase The phase.
+     * @return The time in milliseconds.
+     */
+    public long getMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos[phase.ordinal()].sum());
+    }
+
+    /**
+     * The value of one of the counters.
+     *
+     * @param counter The counter.
+     * @return The count.
+     */
+    public long getCount(Counter counter) {
+        return counts[counter.ordinal()].sum();
+    }
+
+    /**
+     * Write the measurements to the log, at debug level.
+     *
+     * @param event What just happened, e.g. "commit".
+     */
+    public void log(String event) {
+        if (Logging.isDebugEnabled()) {
+            Logging.debug("Gridify metrics after {0}: {1}", event, this);
+        }
+    }
+
+    /**
+     * The measurements of the phases that have run, followed by all counters; e.g.
+     * {@code "interpolation 12 ms (3x), ways 40 ms (1x); primitives created 20000, ..."}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            long count = calls[phase.ordinal()].sum();
+            if (count == 0) continue;
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(phase.label).append(' ').append(getMillis(phase)).append(" ms (").append(count).append("x)");
+        }
+        builder.append(builder.length() > 0 ? "; " : "");
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() > 0) builder.append(", ");
+            builder.append(counter.label).append(' ').append(getCount(counter));
+        }
+        return builder.toString();
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
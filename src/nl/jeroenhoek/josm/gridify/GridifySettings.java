@@ -1,6 +1,7 @@
 package nl.jeroenhoek.josm.gridify;
 
 import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
 import org.openstreetmap.josm.data.preferences.EnumProperty;
 import org.openstreetmap.josm.data.preferences.IntegerProperty;
 
@@ -13,15 +14,31 @@ import static nl.jeroenhoek.josm.gridify.ui.PositiveSpinner.SPINNER_MIN_VALUE;
 public class GridifySettings {
     private final static int DEFAULT_ROW_COUNT = 2;
     private final static int DEFAULT_COL_COUNT = 4;
+    private final static int DEFAULT_PARALLEL_THRESHOLD = 250_000;
+    private final static int DEFAULT_COMMIT_CHUNK_SIZE = 50_000;
+    private final static int DEFAULT_OVERLAY_THRESHOLD = 200_000;
+    private final static int DEFAULT_SELECTION_LIMIT = 10_000;
 
     final IntegerProperty numRowsSetting = new IntegerProperty("gridify.num_rows", DEFAULT_ROW_COUNT);
     final IntegerProperty numColsSetting = new IntegerProperty("gridify.num_cols", DEFAULT_COL_COUNT);
     final BooleanProperty copyTagsFromSource = new BooleanProperty("gridify.copy_tags_from_source", true);
     final BooleanProperty deleteSource = new BooleanProperty("gridify.delete_source", true);
+    final IntegerProperty parallelThreshold = new IntegerProperty("gridify.parallel_threshold", DEFAULT_PARALLEL_THRESHOLD);
+    final DoubleProperty targetCellSize = new DoubleProperty("gridify.target_cell_size", 0);
+    final DoubleProperty snapTolerance = new DoubleProperty("gridify.snap_tolerance", 0);
+    final IntegerProperty commitChunkSize = new IntegerProperty("gridify.commit_chunk_size", DEFAULT_COMMIT_CHUNK_SIZE);
+    final IntegerProperty overlayThreshold = new IntegerProperty("gridify.overlay_threshold", DEFAULT_OVERLAY_THRESHOLD);
+    final IntegerProperty selectionLimit = new IntegerProperty("gridify.selection_limit", DEFAULT_SELECTION_LIMIT);
 
     final EnumProperty<Operation> operationSetting = new EnumProperty<>(
             "gridify.operation", Operation.class, Operation.BLOCKS
     );
+    final EnumProperty<PreviewMode> previewModeSetting = new EnumProperty<>(
+            "gridify.preview_mode", PreviewMode.class, PreviewMode.DATASET
+    );
+    final EnumProperty<SelectionPolicy> selectionPolicySetting = new EnumProperty<>(
+            "gridify.selection_policy", SelectionPolicy.class, SelectionPolicy.LIMITED
+    );
 
     /**
      * Number of rows to generate.
@@ -128,4 +145,155 @@ public class GridifySettings {
     public void setOperation(Operation operation) {
         operationSetting.put(operation);
     }
+
+    /**
+     * Grids with at least this many cells are generated on multiple threads.
+     *
+     * @return The minimum number of cells for parallel generation.
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold.get();
+    }
+
+    /**
+     * Set the minimum number of cells for a grid to be generated on multiple threads.
+     *
+     * @param threshold The number of cells.
+     */
+    public void setParallelThreshold(int threshold) {
+        parallelThreshold.put(threshold);
+    }
+
+    /**
+     * Grids with more primitives than this are added to the data set in chunks of this size, with a progress dialog.
+     *
+     * @return The maximum number of primitives to add at once.
+     */
+    public int getCommitChunkSize() {
+        int chunkSize = commitChunkSize.get();
+        if (chunkSize < 1) {
+            setCommitChunkSize(DEFAULT_COMMIT_CHUNK_SIZE);
+            return DEFAULT_COMMIT_CHUNK_SIZE;
+        }
+        return chunkSize;
+    }
+
+    /**
+     * Set the maximum number of primitives to add to the data set at once.
+     *
+     * @param chunkSize The number of primitives.
+     */
+    public void setCommitChunkSize(int chunkSize) {
+        commitChunkSize.put(chunkSize);
+    }
+
+    /**
+     * How to preview the grid while the dialog is open.
+     *
+     * @return The preview mode.
+     */
+    public PreviewMode getPreviewMode() {
+        return previewModeSetting.get();
+    }
+
+    /**
+     * Set how to preview the grid while the dialog is open.
+     *
+     * @param previewMode The preview mode.
+     */
+    public void setPreviewMode(PreviewMode previewMode) {
+        previewModeSetting.put(previewMode);
+    }
+
+    /**
+     * Grids with more new primitives than this are previewed as an overlay, even if the preview mode is
+     * {@link PreviewMode#DATASET}.
+     *
+     * @return The maximum number of primitives to add to the data set for the preview.
+     */
+    public int getOverlayThreshold() {
+        return overlayThreshold.get();
+    }
+
+    /**
+     * Set the maximum number of primitives to add to the data set for the preview.
+     *
+     * @param threshold The number of primitives.
+     */
+    public void setOverlayThreshold(int threshold) {
+        overlayThreshold.put(threshold);
+    }
+
+    /**
+     * Which of the generated ways to select once a grid has been created.
+     *
+     * @return The selection policy.
+     */
+    public SelectionPolicy getSelectionPolicy() {
+        return selectionPolicySetting.get();
+    }
+
+    /**
+     * Set which of the generated ways to select once a grid has been created.
+     *
+     * @param selectionPolicy The selection policy.
+     */
+    public void setSelectionPolicy(SelectionPolicy selectionPolicy) {
+        selectionPolicySetting.put(selectionPolicy);
+    }
+
+    /**
+     * The maximum number of generated ways to select, for {@link SelectionPolicy#LIMITED}.
+     *
+     * @return The number of ways.
+     */
+    public int getSelectionLimit() {
+        return Math.max(0, selectionLimit.get());
+    }
+
+    /**
+     * Set the maximum number of generated ways to select, for {@link SelectionPolicy#LIMITED}.
+     *
+     * @param limit The number of ways.
+     */
+    public void setSelectionLimit(int limit) {
+        selectionLimit.put(limit);
+    }
+
+    /**
+     * The distance within which new nodes along the edges of a grid are replaced by existing nodes.
+     *
+     * @return The tolerance in meters, or zero to always create new nodes.
+     */
+    public double getSnapTolerance() {
+        return Math.max(0, snapTolerance.get());
+    }
+
+    /**
+     * Set the distance within which new nodes along the edges of a grid are replaced by existing nodes.
+     *
+     * @param tolerance The tolerance in meters, or zero to always create new nodes.
+     */
+    public void setSnapTolerance(double tolerance) {
+        snapTolerance.put(tolerance);
+    }
+
+    /**
+     * The preferred width and height of a cell in meters, when generating grids for many ways at once. If set, the
+     * number of rows and columns of each grid is derived from the size of its source way.
+     *
+     * @return The cell size in meters, or zero to use the same number of rows and columns for every grid.
+     */
+    public double getTargetCellSize() {
+        return Math.max(0, targetCellSize.get());
+    }
+
+    /**
+     * Set the preferred width and height of a cell in meters, when generating grids for many ways at once.
+     *
+     * @param cellSize The cell size in meters, or zero to use the same number of rows and columns for every grid.
+     */
+    public void setTargetCellSize(double cellSize) {
+        targetCellSize.put(cellSize);
+    }
 }
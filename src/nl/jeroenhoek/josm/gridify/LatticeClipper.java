@@ -0,0 +1,799 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+/**
+ * Clips the cells and lines of a lattice against a polygon, without touching any primitives.
+ * <p>
+ * Everything happens in cell coordinates: cell {@code (col, row)} spans {@code [col, col + 1] × [row, row + 1]}, so
+ * the lattice point {@code (col, row)} is at {@code u = col, v = row}. The polygon must lie within the lattice, and
+ * run counter-clockwise in these coordinates.
+ * <p>
+ * Cells are sorted out in time proportional to the number of cells plus the length of the outline in cells. Every
+ * polygon edge is rasterized into the cells it passes through, which are the boundary cells. All other cells are
+ * either inside or outside the polygon as a whole; a single scanline through the centers of each row of cells tells
+ * which. Only the boundary cells are clipped, and only against the edges rasterized into them.
+ * <p>
+ * The result refers to the points it consists of by key; see {@link #kind(long)}. Points where the outline crosses a
+ * lattice line have the same key in every cell and line they are part of, so neighbouring cells share them. A
+ * crossing that coincides with a lattice point gets the key of that lattice point, and a lattice point or crossing
+ * that coincides with a vertex of the polygon gets the key of that vertex, so every position has a single key.
+ */
+final class LatticeClipper {
+    /** A point of the lattice; the first value of the key is its column, the second its row. */
+    static final int LATTICE_POINT = 0;
+    /** A vertex of the polygon; the first value of the key is its index. */
+    static final int POLYGON_VERTEX = 1;
+    /** A polygon edge crossing a column line; the first value of the key is the edge, the second the column. */
+    static final int COLUMN_CROSSING = 2;
+    /** A polygon edge crossing a row line; the first value of the key is the edge, the second the row. */
+    static final int ROW_CROSSING = 3;
+
+    // Points closer than this to a cell side, in cells, are on that side.
+    private static final double EPSILON = 1e-9;
+
+    private final double[] u;
+    private final double[] v;
+    private final int numRows;
+    private final int numColumns;
+    // The vertices of the polygon that lie on a lattice point, by the key of that lattice point.
+    private final Map<Long, Long> latticeVertices = new HashMap<>();
+
+    /**
+     * Constructs a LatticeClipper.
+     *
+     * @param u          The column coordinates of the vertices of the polygon, without repeating the first vertex.
+     * @param v          The row coordinates of the vertices of the polygon.
+     * @param numRows    Number of rows in the lattice.
+     * @param numColumns Number of columns in the lattice.
+     */
+    LatticeClipper(double[] u, double[] v, int numRows, int numColumns) {
+        this.u = u;
+        this.v = v;
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+
+        for (int i = u.length - 1; i >= 0; i--) {
+            long col = Math.round(u[i]);
+            long row = Math.round(v[i]);
+            if (Math.abs(u[i] - col) < EPSILON && Math.abs(v[i] - row) < EPSILON) {
+                latticeVertices.put(key(LATTICE_POINT, (int) col, (int) row), key(POLYGON_VERTEX, i, 0));
+            }
+        }
+    }
+
+    /**
+     * Number of rows in the lattice.
+     *
+     * @return The number of rows.
+     */
+    int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Number of columns in the lattice.
+     *
+     * @return The number of columns.
+     */
+    int getNumColumns() {
+        return numColumns;
+    }
+
+    /**
+     * The cells of the lattice, clipped against the polygon, column by column. Cells inside the polygon are kept as
+     * they are, cells outside of it are skipped, and cells on its outline are cut back to the part that is inside.
+     * A cell that the outline passes through more than once can fall apart into several rings.
+     *
+     * @return Closed rings of point keys.
+     */
+    List<long[]> clipCells() {
+        boolean[] inside = cellCentersInside();
+        Map<Integer, List<Integer>> boundary = boundaryCells();
+
+        List<long[]> rings = new ArrayList<>();
+        for (int col = 0; col < numColumns; col++) {
+            for (int row = 0; row < numRows; row++) {
+                int cell = col * numRows + row;
+                List<Integer> edges = boundary.get(cell);
+                if (edges != null) {
+                    List<long[]> clipped = clipCell(col, row, edges);
+                    if (!clipped.isEmpty()) {
+                        rings.addAll(clipped);
+                        continue;
+                    }
+                }
+                // A cell the outline only touches is inside or outside as a whole.
+                if (inside[cell]) {
+                    long first = canonical(key(LATTICE_POINT, col, row));
+                    rings.add(new long[]{
+                            first,
+                            canonical(key(LATTICE_POINT, col + 1, row)),
+                            canonical(key(LATTICE_POINT, col + 1, row + 1)),
+                            canonical(key(LATTICE_POINT, col, row + 1)),
+                            first
+                    });
+                }
+            }
+        }
+        return rings;
+    }
+
+    /**
+     * The lines of the lattice, clipped against the polygon: first the column lines, then the row lines. The lines
+     * along the outside of the lattice are left out, because the outline of the polygon takes their place; see
+     * {@link #clipOutline(List)}. A line that crosses the polygon more than once falls apart into several pieces.
+     *
+     * @return Pieces of lines, as point keys from one crossing with the outline to the next.
+     */
+    List<long[]> clipLines() {
+        List<long[]> lines = new ArrayList<>();
+        List<List<double[]>> columnCrossings = crossings(u, v, numColumns);
+        for (int col = 1; col < numColumns; col++) {
+            addPieces(lines, columnCrossings.get(col), COLUMN_CROSSING, col, true);
+        }
+        List<List<double[]>> rowCrossings = crossings(v, u, numRows);
+        for (int row = 1; row < numRows; row++) {
+            addPieces(lines, rowCrossings.get(row), ROW_CROSSING, row, false);
+        }
+        return lines;
+    }
+
+    /**
+     * About the number of rings {@link #clipCells()} returns, without clipping any cells: the cells with their center
+     * inside the polygon, plus the other cells the outline passes through. A cell the outline cuts into several rings
+     * counts once.
+     *
+     * @return The estimated number of rings.
+     */
+    int estimateCellCount() {
+        boolean[] inside = cellCentersInside();
+        int count = 0;
+        for (boolean in : inside) {
+            if (in) count++;
+        }
+        for (int cell : boundaryCells().keySet()) {
+            if (!inside[cell]) count++;
+        }
+        return count;
+    }
+
+    /**
+     * About the number of pieces {@link #clipLines()} returns, without creating them: half the number of crossings
+     * of every inner lattice line with the outline.
+     *
+     * @return The estimated number of pieces.
+     */
+    int estimateLineCount() {
+        int count = 0;
+        List<List<double[]>> columnCrossings = crossings(u, v, numColumns);
+        for (int col = 1; col < numColumns; col++) {
+            count += columnCrossings.get(col).size() / 2;
+        }
+        List<List<double[]>> rowCrossings = crossings(v, u, numRows);
+        for (int row = 1; row < numRows; row++) {
+            count += rowCrossings.get(row).size() / 2;
+        }
+        return count;
+    }
+
+    /**
+     * The outline of the polygon, with a point wherever it crosses an inner lattice line. These are the points the
+     * outline shares with the cells returned by {@link #clipCells()}.
+     *
+     * @return A closed ring of point keys, counter-clockwise from the first vertex of the polygon.
+     */
+    long[] clipOutline() {
+        return clipOutline(key -> true);
+    }
+
+    /**
+     * The outline of the polygon, with the ends of the clipped lines inserted where they meet it, so that the lines are
+     * connected to the outline.
+     *
+     * @param lines The pieces of lines returned by {@link #clipLines()}.
+     * @return A closed ring of point keys, counter-clockwise from the first vertex of the polygon.
+     */
+    long[] clipOutline(List<long[]> lines) {
+        Set<Long> ends = new HashSet<>();
+        for (long[] piece : lines) {
+            ends.add(piece[0]);
+            ends.add(piece[piece.length - 1]);
+        }
+        return clipOutline(ends::contains);
+    }
+
+    private long[] clipOutline(LongPredicate included) {
+        LongList ring = new LongList();
+        List<Long> onEdge = new ArrayList<>();
+        for (int edge = 0; edge < u.length; edge++) {
+            ring.add(key(POLYGON_VERTEX, edge, 0));
+
+            onEdge.clear();
+            addCrossings(onEdge, included, u, edge, numColumns, COLUMN_CROSSING);
+            addCrossings(onEdge, included, v, edge, numRows, ROW_CROSSING);
+            int current = edge;
+            onEdge.sort(Comparator.comparingDouble(key -> parameter(current, key)));
+            for (long key : onEdge) {
+                ring.add(key);
+            }
+        }
+        ring.add(ring.get(0));
+        return ring.withoutRepeats();
+    }
+
+    /**
+     * Add the points where an edge crosses the inner lines {@code a = 1 .. lineCount - 1}. Crossings at a vertex are
+     * left out; the vertices are part of the outline anyway.
+     */
+    private void addCrossings(List<Long> onEdge, LongPredicate included, double[] a, int edge, int lineCount,
+                              int kind) {
+        int next = (edge + 1) % a.length;
+        double min = Math.min(a[edge], a[next]);
+        double max = Math.max(a[edge], a[next]);
+        int from = Math.max(1, (int) Math.ceil(min));
+        int to = Math.min(lineCount - 1, (int) Math.ceil(max) - 1);
+        for (int line = from; line <= to; line++) {
+            long key = canonical(key(kind, edge, line));
+            if (kind(key) != POLYGON_VERTEX && included.test(key)) {
+                onEdge.add(key);
+            }
+        }
+    }
+
+    /**
+     * The parameter along an edge of a point on it: 0 at its first vertex and 1 at the next.
+     */
+    private double parameter(int edge, long key) {
+        int next = (edge + 1) % u.length;
+        double du = u[next] - u[edge];
+        double dv = v[next] - v[edge];
+        return ((getU(key) - u[edge]) * du + (getV(key) - v[edge]) * dv) / (du * du + dv * dv);
+    }
+
+    /**
+     * The column coordinate of a point.
+     *
+     * @param key The key of the point.
+     * @return The column coordinate.
+     */
+    double getU(long key) {
+        int edge = first(key);
+        switch (kind(key)) {
+            case LATTICE_POINT:
+                return first(key);
+            case POLYGON_VERTEX:
+                return u[edge];
+            case COLUMN_CROSSING:
+                return second(key);
+            default:
+                return along(v, u, edge, second(key));
+        }
+    }
+
+    /**
+     * The row coordinate of a point.
+     *
+     * @param key The key of the point.
+     * @return The row coordinate.
+     */
+    double getV(long key) {
+        int edge = first(key);
+        switch (kind(key)) {
+            case LATTICE_POINT:
+                return second(key);
+            case POLYGON_VERTEX:
+                return v[edge];
+            case COLUMN_CROSSING:
+                return along(u, v, edge, second(key));
+            default:
+                return second(key);
+        }
+    }
+
+    /**
+     * The kind of point a key refers to: {@link #LATTICE_POINT}, {@link #POLYGON_VERTEX}, {@link #COLUMN_CROSSING},
+     * or {@link #ROW_CROSSING}.
+     *
+     * @param key The key of the point.
+     * @return The kind of point.
+     */
+    static int kind(long key) {
+        return (int) (key >>> 60);
+    }
+
+    /**
+     * The first value of a key; see the kinds of points for its meaning.
+     *
+     * @param key The key of the point.
+     * @return The first value.
+     */
+    static int first(long key) {
+        return (int) ((key >>> 30) & 0x3fffffff);
+    }
+
+    /**
+     * The second value of a key; see the kinds of points for its meaning.
+     *
+     * @param key The key of the point.
+     * @return The second value.
+     */
+    static int second(long key) {
+        return (int) (key & 0x3fffffff);
+    }
+
+    private static long key(int kind, int first, int second) {
+        return (long) kind << 60 | (long) first << 30 | second;
+    }
+
+    /**
+     * The single key of the position a key refers to. A crossing can only coincide with one of the two ends of its
+     * edge; otherwise, a crossing that lies on the other kind of lattice line too is a lattice point. A lattice point
+     * that coincides with a vertex of the polygon is that vertex.
+     */
+    private long canonical(long key) {
+        switch (kind(key)) {
+            case LATTICE_POINT:
+                return latticeVertices.getOrDefault(key, key);
+            case COLUMN_CROSSING:
+                return canonicalCrossing(u, v, key, true);
+            case ROW_CROSSING:
+                return canonicalCrossing(v, u, key, false);
+            default:
+                return key;
+        }
+    }
+
+    /**
+     * The single key of a crossing of an edge with the line {@code a = line}.
+     */
+    private long canonicalCrossing(double[] a, double[] b, long key, boolean column) {
+        int edge = first(key);
+        int next = (edge + 1) % a.length;
+        int line = second(key);
+        if (Math.abs(a[edge] - line) < EPSILON) return key(POLYGON_VERTEX, edge, 0);
+        if (Math.abs(a[next] - line) < EPSILON) return key(POLYGON_VERTEX, next, 0);
+
+        double position = along(a, b, edge, line);
+        long point = Math.round(position);
+        if (Math.abs(position - point) >= EPSILON) return key;
+        long latticePoint = column ? key(LATTICE_POINT, line, (int) point) : key(LATTICE_POINT, (int) point, line);
+        return latticeVertices.getOrDefault(latticePoint, latticePoint);
+    }
+
+    /**
+     * The coordinate {@code b} where edge {@code edge} crosses the line {@code a = line}.
+     */
+    private static double along(double[] a, double[] b, int edge, int line) {
+        int next = (edge + 1) % a.length;
+        double t = (line - a[edge]) / (a[next] - a[edge]);
+        return b[edge] + t * (b[next] - b[edge]);
+    }
+
+    /**
+     * Where the polygon crosses each of the lines {@code a = 0 .. lineCount}, sorted by {@code b}. Every edge is only
+     * visited for the lines it crosses. An edge crosses a line if one end is on or below it and the other end above,
+     * so a vertex on a line is counted once.
+     *
+     * @return For every line, pairs of {@code b} and the edge crossing it there.
+     */
+    private static List<List<double[]>> crossings(double[] a, double[] b, int lineCount) {
+        List<List<double[]>> crossings = new ArrayList<>(lineCount + 1);
+        for (int line = 0; line <= lineCount; line++) {
+            crossings.add(new ArrayList<>());
+        }
+
+        for (int edge = 0; edge < a.length; edge++) {
+            int next = (edge + 1) % a.length;
+            double min = Math.min(a[edge], a[next]);
+            double max = Math.max(a[edge], a[next]);
+            int from = Math.max(0, (int) Math.ceil(min));
+            int to = Math.min(lineCount, (int) Math.ceil(max) - 1);
+            for (int line = from; line <= to; line++) {
+                crossings.get(line).add(new double[]{along(a, b, edge, line), edge});
+            }
+        }
+
+        for (List<double[]> line : crossings) {
+            line.sort((x, y) -> Double.compare(x[0], y[0]));
+        }
+        return crossings;
+    }
+
+    /**
+     * Add the pieces of a lattice line that are inside the polygon, from each crossing with the outline to the next.
+     */
+    private void addPieces(List<long[]> lines, List<double[]> crossings, int crossingKind, int line, boolean column) {
+        for (int i = 0; i + 1 < crossings.size(); i += 2) {
+            double from = crossings.get(i)[0];
+            double to = crossings.get(i + 1)[0];
+            if (to - from < EPSILON) continue;
+
+            // The lattice points strictly between the two crossings.
+            int first = (int) Math.floor(from + EPSILON) + 1;
+            int last = (int) Math.ceil(to - EPSILON) - 1;
+
+            LongList piece = new LongList();
+            piece.add(canonical(key(crossingKind, (int) crossings.get(i)[1], line)));
+            for (int point = first; point <= last; point++) {
+                piece.add(canonical(column
+                        ? key(LATTICE_POINT, line, point)
+                        : key(LATTICE_POINT, point, line)));
+            }
+            piece.add(canonical(key(crossingKind, (int) crossings.get(i + 1)[1], line)));
+            long[] keys = piece.withoutRepeats();
+            if (keys.length >= 2) {
+                lines.add(keys);
+            }
+        }
+    }
+
+    /**
+     * Whether the center of each cell is inside the polygon, from one scanline through the centers of each row.
+     */
+    private boolean[] cellCentersInside() {
+        boolean[] inside = new boolean[numColumns * numRows];
+
+        // Crossings of the scanlines v = row + 0.5 are the crossings of the lines v' = row of the polygon moved up.
+        double[] shifted = new double[v.length];
+        for (int i = 0; i < v.length; i++) {
+            shifted[i] = v[i] - 0.5;
+        }
+        List<List<double[]>> crossings = crossings(shifted, u, numRows);
+
+        for (int row = 0; row < numRows; row++) {
+            List<double[]> line = crossings.get(row);
+            boolean in = false;
+            int next = 0;
+            for (int col = 0; col < numColumns; col++) {
+                while (next < line.size() && line.get(next)[0] <= col + 0.5) {
+                    in = !in;
+                    next++;
+                }
+                inside[col * numRows + row] = in;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * The cells the outline of the polygon passes through, and the edges that pass through each. Edges that only
+     * touch the side of a cell don't count.
+     */
+    private Map<Integer, List<Integer>> boundaryCells() {
+        Map<Integer, List<Integer>> cells = new HashMap<>();
+
+        for (int edge = 0; edge < u.length; edge++) {
+            int next = (edge + 1) % u.length;
+            double minV = Math.min(v[edge], v[next]);
+            double maxV = Math.max(v[edge], v[next]);
+            int fromRow = Math.max(0, (int) Math.floor(minV + EPSILON));
+            int toRow = Math.min(numRows - 1, (int) Math.ceil(maxV - EPSILON) - 1);
+
+            for (int row = fromRow; row <= toRow; row++) {
+                // The part of the edge within this row of cells.
+                double minU;
+                double maxU;
+                if (v[edge] == v[next]) {
+                    minU = Math.min(u[edge], u[next]);
+                    maxU = Math.max(u[edge], u[next]);
+                } else {
+                    double uLow = uAt(edge, next, Math.max(minV, row));
+                    double uHigh = uAt(edge, next, Math.min(maxV, row + 1));
+                    minU = Math.min(uLow, uHigh);
+                    maxU = Math.max(uLow, uHigh);
+                }
+
+                int fromCol = Math.max(0, (int) Math.floor(minU + EPSILON));
+                int toCol = Math.min(numColumns - 1, (int) Math.ceil(maxU - EPSILON) - 1);
+                for (int col = fromCol; col <= toCol; col++) {
+                    cells.computeIfAbsent(col * numRows + row, cell -> new ArrayList<>(2)).add(edge);
+                }
+            }
+        }
+        return cells;
+    }
+
+    private double uAt(int edge, int next, double atV) {
+        double t = (atV - v[edge]) / (v[next] - v[edge]);
+        return u[edge] + t * (u[next] - u[edge]);
+    }
+
+    /**
+     * Clip a cell against the polygon. The parts of the outline within the cell are chained together into paths that
+     * enter and leave the cell. Because the polygon runs counter-clockwise, the inside is to the left of every path,
+     * so each ring continues from where a path leaves the cell, counter-clockwise along the sides of the cell, to
+     * where the next path enters it.
+     *
+     * @return The rings the cell consists of, or none if the outline only touches it.
+     */
+    private List<long[]> clipCell(int col, int row, List<Integer> edges) {
+        Map<Integer, Piece> pieces = new HashMap<>();
+        for (int edge : edges) {
+            Piece piece = clip(edge, col, row);
+            if (piece != null) {
+                pieces.put(edge, piece);
+            }
+        }
+
+        for (Piece piece : pieces.values()) {
+            Piece next = pieces.get((piece.edge + 1) % u.length);
+            if (next != null && piece.to == 1 && next.from == 0) {
+                piece.next = next;
+                next.previous = piece;
+            }
+        }
+
+        List<Path> paths = new ArrayList<>();
+        for (Piece piece : pieces.values()) {
+            if (piece.previous == null) {
+                paths.add(new Path(piece, col, row));
+            }
+        }
+
+        List<long[]> rings = new ArrayList<>();
+        if (paths.isEmpty()) {
+            // The whole polygon is within this cell.
+            if (pieces.size() == u.length) {
+                long[] ring = new long[u.length + 1];
+                for (int i = 0; i < u.length; i++) {
+                    ring[i] = key(POLYGON_VERTEX, i, 0);
+                }
+                ring[u.length] = ring[0];
+                rings.add(ring);
+            }
+            return rings;
+        }
+
+        boolean[] used = new boolean[paths.size()];
+        for (int start = 0; start < paths.size(); start++) {
+            if (used[start]) continue;
+
+            LongList ring = new LongList();
+            int current = start;
+            do {
+                Path path = paths.get(current);
+                used[current] = true;
+                ring.addAll(path.keys);
+
+                int next = nextPath(paths, current);
+                double distance = perimeterDistance(path.exit, paths.get(next).entry, next == current);
+                for (int step = 1; step <= 4; step++) {
+                    int corner = ((int) Math.floor(path.exit) + step) % 4;
+                    double toCorner = perimeterDistance(path.exit, corner, true);
+                    if (toCorner < distance) {
+                        ring.add(canonical(corner(col, row, corner)));
+                    }
+                }
+                current = next;
+            } while (current != start && !used[current]);
+
+            ring.add(ring.get(0));
+            long[] keys = ring.withoutRepeats();
+            if (keys.length >= 4) {
+                rings.add(keys);
+            }
+        }
+        return rings;
+    }
+
+    /**
+     * The path that enters the cell first, counter-clockwise along the sides of the cell from where a path leaves it.
+     */
+    private static int nextPath(List<Path> paths, int current) {
+        double exit = paths.get(current).exit;
+        int best = current;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < paths.size(); i++) {
+            double distance = perimeterDistance(exit, paths.get(i).entry, i == current);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Distance counter-clockwise along the sides of a cell, where each side has length one.
+     *
+     * @param fullCircle Whether a distance of zero counts as a full circle.
+     */
+    private static double perimeterDistance(double from, double to, boolean fullCircle) {
+        double distance = ((to - from) % 4 + 4) % 4;
+        return distance == 0 && fullCircle ? 4 : distance;
+    }
+
+    /**
+     * The corners of a cell, counter-clockwise: 0 at {@code (col, row)}, 1 at {@code (col + 1, row)}, 2 at
+     * {@code (col + 1, row + 1)}, and 3 at {@code (col, row + 1)}.
+     */
+    private static long corner(int col, int row, int corner) {
+        int dCol = corner == 1 || corner == 2 ? 1 : 0;
+        int dRow = corner >= 2 ? 1 : 0;
+        return key(LATTICE_POINT, col + dCol, row + dRow);
+    }
+
+    /**
+     * The part of an edge within the closed cell (Liang-Barsky), or {@code null} if there is none, or if it lies
+     * along one of the sides of the cell.
+     */
+    private Piece clip(int edge, int col, int row) {
+        int next = (edge + 1) % u.length;
+        double du = u[next] - u[edge];
+        double dv = v[next] - v[edge];
+        double[] p = {-du, du, -dv, dv};
+        double[] q = {u[edge] - col, col + 1 - u[edge], v[edge] - row, row + 1 - v[edge]};
+
+        double from = 0;
+        double to = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) return null;
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    from = Math.max(from, t);
+                } else {
+                    to = Math.min(to, t);
+                }
+            }
+        }
+
+        double tolerance = EPSILON / Math.max(EPSILON, Math.hypot(du, dv));
+        if (to - from <= tolerance) return null;
+
+        double midU = u[edge] + (from + to) / 2 * du - col;
+        double midV = v[edge] + (from + to) / 2 * dv - row;
+        if (Math.min(Math.min(midU, 1 - midU), Math.min(midV, 1 - midV)) < EPSILON) return null;
+
+        return new Piece(edge, from < tolerance ? 0 : from, to > 1 - tolerance ? 1 : to);
+    }
+
+    /**
+     * The part of one polygon edge within a cell, from parameter {@code from} to {@code to} along the edge.
+     */
+    private static final class Piece {
+        final int edge;
+        final double from;
+        final double to;
+        Piece previous;
+        Piece next;
+
+        Piece(int edge, double from, double to) {
+            this.edge = edge;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Consecutive pieces of the outline, from where they enter the cell to where they leave it.
+     */
+    private final class Path {
+        final LongList keys = new LongList();
+        // Positions along the sides of the cell; see perimeterPosition.
+        final double entry;
+        final double exit;
+
+        Path(Piece first, int col, int row) {
+            keys.add(first.from == 0
+                    ? key(POLYGON_VERTEX, first.edge, 0)
+                    : canonical(sideKey(first.edge, first.from, col, row)));
+            entry = perimeterPosition(first.edge, first.from, col, row);
+
+            Piece last = first;
+            while (last.next != null) {
+                keys.add(key(POLYGON_VERTEX, last.next.edge, 0));
+                last = last.next;
+            }
+
+            keys.add(last.to == 1
+                    ? key(POLYGON_VERTEX, (last.edge + 1) % u.length, 0)
+                    : canonical(sideKey(last.edge, last.to, col, row)));
+            exit = perimeterPosition(last.edge, last.to, col, row);
+        }
+    }
+
+    /**
+     * The key of the point at parameter {@code t} along an edge, where it crosses a side of a cell.
+     */
+    private long sideKey(int edge, double t, int col, int row) {
+        int next = (edge + 1) % u.length;
+        double pointU = u[edge] + t * (u[next] - u[edge]) - col;
+        double pointV = v[edge] + t * (v[next] - v[edge]) - row;
+        switch (nearestSide(pointU, pointV)) {
+            case 0:
+                return key(ROW_CROSSING, edge, row);
+            case 1:
+                return key(COLUMN_CROSSING, edge, col + 1);
+            case 2:
+                return key(ROW_CROSSING, edge, row + 1);
+            default:
+                return key(COLUMN_CROSSING, edge, col);
+        }
+    }
+
+    /**
+     * The position of the point at parameter {@code t} along an edge, counter-clockwise along the sides of the cell:
+     * from 0 at corner 0 to 4 back at corner 0.
+     */
+    private double perimeterPosition(int edge, double t, int col, int row) {
+        int next = (edge + 1) % u.length;
+        double pointU = u[edge] + t * (u[next] - u[edge]) - col;
+        double pointV = v[edge] + t * (v[next] - v[edge]) - row;
+        switch (nearestSide(pointU, pointV)) {
+            case 0:
+                return pointU;
+            case 1:
+                return 1 + pointV;
+            case 2:
+                return 2 + (1 - pointU);
+            default:
+                return (3 + (1 - pointV)) % 4;
+        }
+    }
+
+    /**
+     * The side of a cell nearest to a point within it: 0 for {@code v = row}, 1 for {@code u = col + 1}, 2 for
+     * {@code v = row + 1}, 3 for {@code u = col}.
+     */
+    private static int nearestSide(double pointU, double pointV) {
+        double[] distances = {pointV, 1 - pointU, 1 - pointV, pointU};
+        int nearest = 0;
+        for (int side = 1; side < 4; side++) {
+            if (distances[side] < distances[nearest]) {
+                nearest = side;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * A growable array of keys.
+     */
+    private static final class LongList {
+        private long[] values = new long[8];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(LongList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        /**
+         * The keys, leaving out every key that is the same as the one before it.
+         */
+        long[] withoutRepeats() {
+            long[] result = new long[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (count == 0 || result[count - 1] != values[i]) {
+                    result[count++] = values[i];
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+    }
+}
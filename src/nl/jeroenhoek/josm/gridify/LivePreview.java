@@ -0,0 +1,48 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.exception.GridifyException;
+
+/**
+ * A preview of the grid, shown while the user changes the settings in the dialog.
+ * <p>
+ * All methods must be called on the event dispatch thread.
+ */
+interface LivePreview {
+    /**
+     * Bring the preview up to date with a precomputed lattice.
+     *
+     * @param coordinates     The coordinates of the grid.
+     * @param operation       The operation type (blocks or lines).
+     * @param copyTags        Whether to copy tags from the source way.
+     * @param deleteSourceWay Whether to delete the source way after the operation.
+     */
+    void apply(GridLattice coordinates, Operation operation, boolean copyTags, boolean deleteSourceWay);
+
+    /**
+     * The number of ways the grid currently previewed consists of.
+     *
+     * @return The number of ways.
+     */
+    int getWayCount();
+
+    /**
+     * Whether the primitives of the grid currently previewed are in the data set already, rather than only drawn.
+     *
+     * @return True if the preview consists of primitives in the data set.
+     */
+    boolean isInDataSet();
+
+    /**
+     * Discard the preview.
+     */
+    void remove();
+
+    /**
+     * Add the grid currently previewed to the data set, as a single entry in the undo history.
+     *
+     * @param settings The settings to generate the grid with.
+     * @throws GridifyException Thrown if the grid cannot be generated.
+     */
+    void commit(GridifySettings settings) throws GridifyException;
+}
@@ -6,7 +6,11 @@ import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
@@ -19,28 +23,30 @@ public enum Operation {
      */
     LINES {
         @Override
-        public List<Way> perform(List<List<Node>> columns) {
-            List<Way> lines = new ArrayList<>();
+        void assembleInParallel(List<List<Node>> columns, Way[] ways) {
+            // Vertical lines only share nodes with horizontal lines, and vice versa.
+            assembleInStripes(columns, ways, 0, columns.size());
+            assembleInStripes(columns, ways, columns.size(), ways.length);
+        }
 
-            int rows = 0;
-            for (List<Node> column : columns) {
-                rows = column.size();
-                Way line = new Way();
-                for (Node node : column) {
-                    line.addNode(node);
-                }
-                lines.add(line);
-            }
+        @Override
+        public int getWayCount(int numRows, int numColumns) {
+            return (numColumns + 1) + (numRows + 1);
+        }
 
-            for (int i = 0; i < rows; i++) {
-                Way line = new Way();
-                for (List<Node> column : columns) {
-                    line.addNode(column.get(i));
-                }
-                lines.add(line);
+        @Override
+        public List<Node> getWayNodes(List<List<Node>> columns, int index) {
+            // The vertical lines come first, followed by the horizontal lines.
+            if (index < columns.size()) {
+                return columns.get(index);
             }
 
-            return lines;
+            int row = index - columns.size();
+            List<Node> line = new ArrayList<>(columns.size());
+            for (List<Node> column : columns) {
+                line.add(column.get(row));
+            }
+            return line;
         }
 
         @Override
@@ -53,31 +59,38 @@ public enum Operation {
      */
     BLOCKS {
         @Override
-        public List<Way> perform(List<List<Node>> columns) throws GridifyException {
-            List<Way> blocks = new ArrayList<>();
-            if (columns.size() <= 1) return blocks;
-
-            for (int col = 0; col < columns.size() - 1; col++) {
-                List<Node> left = columns.get(col);
-                List<Node> right = columns.get(col + 1);
-
-                if (left.size() <= 1 || right.size() <= 1) continue;
-                if (left.size() != right.size()) {
-                    throw new GridifyException("Nodes per column varies. This should not be possible.");
-                }
-
-                for (int row = 0; row < left.size() - 1; row++) {
-                    Way block = new Way();
-                    block.addNode(left.get(row));
-                    block.addNode(right.get(row));
-                    block.addNode(right.get(row + 1));
-                    block.addNode(left.get(row + 1));
-                    block.addNode(left.get(row));
-                    blocks.add(block);
-                }
+        void assembleInParallel(List<List<Node>> columns, Way[] ways) {
+            int rowsPerColumn = columns.get(0).size() - 1;
+
+            // Each stripe covers a number of columns of blocks. Neighbouring stripes share a column of nodes, so all
+            // even stripes are assembled first, followed by all odd stripes.
+            int blockColumns = columns.size() - 1;
+            int stripeWidth = stripeWidth(blockColumns);
+            int stripes = (blockColumns + stripeWidth - 1) / stripeWidth;
+            for (int parity = 0; parity < 2; parity++) {
+                int first = parity;
+                IntStream.range(0, (stripes - first + 1) / 2).parallel().forEach(k -> {
+                    int from = (first + 2 * k) * stripeWidth;
+                    int to = Math.min(blockColumns, from + stripeWidth);
+                    assemble(columns, ways, from * rowsPerColumn, to * rowsPerColumn);
+                });
             }
+        }
+
+        @Override
+        public int getWayCount(int numRows, int numColumns) {
+            return numRows * numColumns;
+        }
+
+        @Override
+        public List<Node> getWayNodes(List<List<Node>> columns, int index) {
+            // Blocks are generated column by column, top to bottom.
+            int rowsPerColumn = columns.get(0).size() - 1;
+            List<Node> left = columns.get(index / rowsPerColumn);
+            List<Node> right = columns.get(index / rowsPerColumn + 1);
+            int row = index % rowsPerColumn;
 
-            return blocks;
+            return Arrays.asList(left.get(row), right.get(row), right.get(row + 1), left.get(row + 1), left.get(row));
         }
 
         @Override
@@ -87,11 +100,147 @@ public enum Operation {
     };
 
     /**
-     * Perform the operation.
+     * Perform the operation, on the common {@link ForkJoinPool} if the grid has at least {@code parallelThreshold}
+     * cells.
      *
-     * @param columns All the nodes of the grid, as a list of columns each containing an equal number of nodes.
+     * @param columns           All the nodes of the grid, as a list of columns each containing an equal number of
+     *                          nodes.
+     * @param parallelThreshold Minimum number of cells for the ways to be assembled in parallel.
      * @return A list of newly generated {@link Way} instances.
      * @throws GridifyException Thrown when an error occurs.
+     * @see #perform(List, int, Consumer)
+     */
+    public List<Way> perform(List<List<Node>> columns, int parallelThreshold) throws GridifyException {
+        List<Way> ways = new ArrayList<>();
+        perform(columns, parallelThreshold, ways::add);
+        return ways;
+    }
+
+    /**
+     * Perform the operation, on the common {@link ForkJoinPool} if the grid has at least {@code parallelThreshold}
+     * cells, passing each generated way to {@code sink}. Below the threshold, the operation doesn't hold on to any
+     * ways itself, so sinks that don't need all ways at once (an exporter, a counter) can process grids of any size.
+     * <p>
+     * The nodes of every way are collected up front and attached with a single {@link Way#setNodes(List)}, which
+     * copies them and registers the way as their referrer in one pass. Adding them one by one with
+     * {@link Way#addNode(Node)} would copy the node array for every node, which takes quadratic time for long lines.
+     * <p>
+     * In parallel, all ways are created up front on the calling thread, so their IDs and their order are the same as
+     * when they are assembled one by one. The worker threads only fill in the nodes of the ways. Because that
+     * updates the referrers of these nodes, ways that share nodes are never filled in at the same time. The sink is
+     * called on the calling thread, once all ways are complete.
+     *
+     * @param columns           All the nodes of the grid, as a list of columns each containing an equal number of
+     *                          nodes.
+     * @param parallelThreshold Minimum number of cells for the ways to be assembled in parallel.
+     * @param sink              Receives every newly generated way, in order.
+     * @throws GridifyException Thrown when an error occurs.
+     */
+    public void perform(List<List<Node>> columns, int parallelThreshold, Consumer<? super Way> sink)
+            throws GridifyException {
+        long start = GridifyMetrics.start();
+        int numColumns = columns.size() - 1;
+        int numRows = columns.get(0).size() - 1;
+        if ((long) numRows * numColumns < parallelThreshold) {
+            assemble(columns, sink);
+        } else {
+            Way[] ways = new Way[checkColumns(columns)];
+            for (int i = 0; i < ways.length; i++) {
+                ways[i] = new Way();
+            }
+            assembleInParallel(columns, ways);
+
+            for (Way way : ways) {
+                sink.accept(way);
+            }
+        }
+        GridifyMetrics.getInstance().record(GridifyMetrics.Phase.WAYS, start);
+    }
+
+    /**
+     * Create the ways one by one, on the calling thread.
+     */
+    private void assemble(List<List<Node>> columns, Consumer<? super Way> sink) throws GridifyException {
+        int wayCount = checkColumns(columns);
+        for (int i = 0; i < wayCount; i++) {
+            Way way = new Way();
+            way.setNodes(getWayNodes(columns, i));
+            sink.accept(way);
+        }
+    }
+
+    /**
+     * Check that all columns have the same number of nodes.
+     *
+     * @return The number of ways the operation generates for these columns.
+     * @throws GridifyException Thrown if the number of nodes per column varies.
+     */
+    private int checkColumns(List<List<Node>> columns) throws GridifyException {
+        if (columns.isEmpty()) return 0;
+
+        int numRows = columns.get(0).size() - 1;
+        for (List<Node> column : columns) {
+            if (column.size() != numRows + 1) {
+                throw new GridifyException("Nodes per column varies. This should not be possible.");
+            }
+        }
+
+        return getWayCount(numRows, columns.size() - 1);
+    }
+
+    /**
+     * Fill in the nodes of all ways, using multiple threads.
+     *
+     * @param columns All the nodes of the grid.
+     * @param ways    Empty ways, as many as {@link #getWayCount(int, int)}.
+     */
+    abstract void assembleInParallel(List<List<Node>> columns, Way[] ways);
+
+    /**
+     * Fill in the nodes of the ways with indices {@code from} (inclusive) to {@code to} (exclusive).
+     */
+    void assemble(List<List<Node>> columns, Way[] ways, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ways[i].setNodes(getWayNodes(columns, i));
+        }
+    }
+
+    /**
+     * Fill in the nodes of the ways with indices {@code from} (inclusive) to {@code to} (exclusive) in parallel
+     * stripes. The ways in this range must not share any nodes.
+     */
+    void assembleInStripes(List<List<Node>> columns, Way[] ways, int from, int to) {
+        int stripeWidth = stripeWidth(to - from);
+        int stripes = (to - from + stripeWidth - 1) / stripeWidth;
+        IntStream.range(0, stripes).parallel().forEach(stripe -> {
+            int stripeFrom = from + stripe * stripeWidth;
+            assemble(columns, ways, stripeFrom, Math.min(to, stripeFrom + stripeWidth));
+        });
+    }
+
+    /**
+     * Split the work into a few stripes per thread of the pool, so threads that finish early can pick up more.
+     */
+    static int stripeWidth(int count) {
+        return Math.max(1, count / (4 * ForkJoinPool.getCommonPoolParallelism()));
+    }
+
+    /**
+     * The number of ways {@link #perform(List, int, Consumer)} generates for a grid of this size.
+     *
+     * @param numRows    Number of rows in the grid.
+     * @param numColumns Number of columns in the grid.
+     * @return The number of generated ways.
+     */
+    public abstract int getWayCount(int numRows, int numColumns);
+
+    /**
+     * The nodes of a single way of the grid, without creating the {@link Way} itself. Ways are numbered in the same
+     * order as {@link #perform(List, int, Consumer)} passes them to its sink.
+     *
+     * @param columns All the nodes of the grid, as a list of columns each containing an equal number of nodes.
+     * @param index   Index of the way, between zero and {@link #getWayCount(int, int)}.
+     * @return The nodes the way consists of.
      */
-    public abstract List<Way> perform(List<List<Node>> columns) throws GridifyException;
+    public abstract List<Node> getWayNodes(List<List<Node>> columns, int index);
 }
@@ -0,0 +1,398 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.command.AddGridCommand;
+import nl.jeroenhoek.josm.gridify.exception.GridifyException;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.search.SearchCompiler;
+import org.openstreetmap.josm.data.osm.search.SearchCompiler.Match;
+import org.openstreetmap.josm.data.osm.search.SearchParseError;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.Logging;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates grids for the four-node ways in an OSM XML file, without any user interface, and writes them to an OSM
+ * change (.osc) file.
+ * <p>
+ * The input is streamed twice: once to collect the source ways matching the filter, and which ways are part of a
+ * relation, and once to collect the coordinates of the nodes of the source ways. Only these are kept in memory. Each
+ * grid is then generated in a data set of its own, using the same commands as {@link GridifyAction}, written to the
+ * output, and discarded again, so the memory used doesn't grow with the number of grids.
+ * <p>
+ * Only ways that have been uploaded, along with their nodes, are processed; the change file refers to them by ID.
+ * Source ways that are part of a relation are never deleted, like in {@link GridifyAction}.
+ */
+public class OsmFileGridifier {
+    private final Match filter;
+    private final int numRows;
+    private final int numColumns;
+    private final Operation operation;
+    private final boolean copyTags;
+    private final boolean deleteSourceWay;
+
+    private final DecimalFormat coordinateFormat = new DecimalFormat("0.0######", DecimalFormatSymbols.getInstance(Locale.ROOT));
+
+    /**
+     * Constructs an OsmFileGridifier.
+     *
+     * @param filter          Selects the ways to generate a grid for, in JOSM search syntax; e.g.
+     *                        {@code "amenity=parking"}.
+     * @param numRows         Number of rows in each grid.
+     * @param numColumns      Number of columns in each grid.
+     * @param operation       The operation type (blocks or lines).
+     * @param copyTags        Whether to copy tags from the source ways.
+     * @param deleteSourceWay Whether to delete the source ways.
+     * @throws GridifyException Thrown if the filter is not a valid search expression.
+     */
+    public OsmFileGridifier(String filter, int numRows, int numColumns, Operation operation,
+                            boolean copyTags, boolean deleteSourceWay) throws GridifyException {
+        try {
+            this.filter = SearchCompiler.compile(filter);
+        } catch (SearchParseError e) {
+            throw new GridifyException("Invalid filter: " + filter, e);
+        }
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.operation = operation;
+        this.copyTags = copyTags;
+        this.deleteSourceWay = deleteSourceWay;
+    }
+
+    /**
+     * Generate grids for all matching ways in {@code input}, and write them to {@code output}.
+     *
+     * @param input  An OSM XML file.
+     * @param output The OSM change file to write.
+     * @return The number of grids generated.
+     * @throws GridifyException Thrown if the files cannot be read or written.
+     */
+    public int gridify(Path input, Path output) throws GridifyException {
+        try {
+            List<SourceWay> sourceWays = readSourceWays(input);
+
+            Set<Long> nodeIds = new HashSet<>();
+            for (SourceWay sourceWay : sourceWays) {
+                for (long nodeId : sourceWay.nodes) {
+                    nodeIds.add(nodeId);
+                }
+            }
+            Map<Long, SourceNode> sourceNodes = readSourceNodes(input, nodeIds);
+
+            try (OutputStream out = Files.newOutputStream(output)) {
+                XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.writeStartElement("osmChange");
+                writer.writeAttribute("version", "0.6");
+                writer.writeAttribute("generator", "Gridify");
+
+                int count = 0;
+                for (SourceWay sourceWay : sourceWays) {
+                    if (gridify(sourceWay, sourceNodes, writer)) {
+                        count++;
+                    }
+                }
+
+                writer.writeEndElement();
+                writer.writeEndDocument();
+                writer.close();
+                return count;
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new GridifyException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * First pass: collect the ways matching the filter that consist of four nodes, and mark those that are part of a
+     * relation.
+     */
+    private List<SourceWay> readSourceWays(Path input) throws IOException, XMLStreamException {
+        List<SourceWay> sourceWays = new ArrayList<>();
+        Set<Long> relationMembers = new HashSet<>();
+
+        try (InputStream in = Files.newInputStream(input)) {
+            XMLStreamReader reader = createReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+
+                if ("member".equals(reader.getLocalName())) {
+                    if ("way".equals(reader.getAttributeValue(null, "type"))) {
+                        relationMembers.add(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                    }
+                    continue;
+                }
+                if (!"way".equals(reader.getLocalName())) continue;
+
+                SourceWay sourceWay = new SourceWay(
+                        Long.parseLong(reader.getAttributeValue(null, "id")),
+                        parseVersion(reader.getAttributeValue(null, "version")));
+                List<Long> nodes = new ArrayList<>();
+
+                // Collect the nodes and tags, up to the end of the way.
+                int depth = 1;
+                while (depth > 0) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if ("nd".equals(reader.getLocalName())) {
+                            nodes.add(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                        } else if ("tag".equals(reader.getLocalName())) {
+                            sourceWay.tags.put(reader.getAttributeValue(null, "k"), reader.getAttributeValue(null, "v"));
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+
+                // In closed ways consisting of four nodes the first node is repeated as the last node.
+                boolean closed = nodes.size() == 5 && nodes.get(0).equals(nodes.get(4));
+                if (nodes.size() != 4 && !closed) continue;
+
+                if (!filter.match(toWay(sourceWay, nodes))) continue;
+
+                // The change file refers to the source way and its nodes, so these have to exist on the server.
+                if (sourceWay.id <= 0 || nodes.stream().anyMatch(id -> id <= 0)) {
+                    Logging.warn("Gridify: skipping way {0}, it or its nodes have not been uploaded.", sourceWay.id);
+                    continue;
+                }
+
+                sourceWay.nodes = nodes.stream().mapToLong(Long::longValue).toArray();
+                sourceWays.add(sourceWay);
+            }
+            reader.close();
+        }
+
+        for (SourceWay sourceWay : sourceWays) {
+            sourceWay.inRelation = relationMembers.contains(sourceWay.id);
+        }
+        return sourceWays;
+    }
+
+    /**
+     * The way as the filter sees it: with its ID, version, tags and nodes, so that expressions such as {@code closed},
+     * {@code nodes:4} or {@code id:} work as they do in JOSM. The nodes have no coordinates yet.
+     */
+    private static Way toWay(SourceWay sourceWay, List<Long> nodeIds) {
+        Way way = sourceWay.id > 0 ? new Way(sourceWay.id, sourceWay.version) : new Way();
+        Map<Long, Node> nodes = new HashMap<>();
+        List<Node> wayNodes = new ArrayList<>(nodeIds.size());
+        for (long nodeId : nodeIds) {
+            wayNodes.add(nodes.computeIfAbsent(nodeId, id -> id > 0 ? new Node(id) : new Node()));
+        }
+        way.setNodes(wayNodes);
+        way.setKeys(sourceWay.tags);
+        return way;
+    }
+
+    /**
+     * Second pass: collect the coordinates of the nodes of the source ways.
+     */
+    private Map<Long, SourceNode> readSourceNodes(Path input, Set<Long> nodeIds) throws IOException, XMLStreamException {
+        Map<Long, SourceNode> sourceNodes = new HashMap<>();
+
+        try (InputStream in = Files.newInputStream(input)) {
+            XMLStreamReader reader = createReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT || !"node".equals(reader.getLocalName())) {
+                    continue;
+                }
+
+                long id = Long.parseLong(reader.getAttributeValue(null, "id"));
+                if (nodeIds.contains(id)) {
+                    sourceNodes.put(id, new SourceNode(
+                            parseVersion(reader.getAttributeValue(null, "version")),
+                            new LatLon(
+                                    Double.parseDouble(reader.getAttributeValue(null, "lat")),
+                                    Double.parseDouble(reader.getAttributeValue(null, "lon")))));
+                }
+            }
+            reader.close();
+        }
+
+        return sourceNodes;
+    }
+
+    /**
+     * Generate the grid of a single source way in a data set of its own, and write the result.
+     *
+     * @return True if a grid was generated; false if nodes of the source way are missing from the input.
+     */
+    private boolean gridify(SourceWay sourceWay, Map<Long, SourceNode> sourceNodes, XMLStreamWriter writer)
+            throws GridifyException, XMLStreamException {
+        DataSet dataSet = new DataSet();
+
+        Map<Long, Node> nodes = new HashMap<>();
+        List<Node> wayNodes = new ArrayList<>(sourceWay.nodes.length);
+        for (long nodeId : sourceWay.nodes) {
+            SourceNode sourceNode = sourceNodes.get(nodeId);
+            if (sourceNode == null) {
+                Logging.warn("Gridify: skipping way {0}, node {1} is missing.", sourceWay.id, nodeId);
+                return false;
+            }
+            wayNodes.add(nodes.computeIfAbsent(nodeId, id -> {
+                Node node = new Node(id, sourceNode.version);
+                node.setCoor(sourceNode.coor);
+                dataSet.addPrimitive(node);
+                return node;
+            }));
+        }
+
+        Way way = new Way(sourceWay.id, sourceWay.version);
+        way.setNodes(wayNodes);
+        way.setKeys(sourceWay.tags);
+        dataSet.addPrimitive(way);
+
+        InputData inputData = new InputData(
+                GridExtrema.from(wayNodes.get(0), wayNodes.get(1), wayNodes.get(2), wayNodes.get(3)),
+                way, way.getKeys());
+        // The relations aren't part of the data set, so the command builder can't tell which source ways to keep.
+        if (deleteSourceWay && sourceWay.inRelation) {
+            Logging.info("Gridify: keeping way {0}, it is part of a relation.", sourceWay.id);
+        }
+        Collection<Command> commands = GridifyAction.calculateGridCommands(dataSet, inputData, numRows, numColumns,
+                operation, copyTags, deleteSourceWay && !sourceWay.inRelation, Integer.MAX_VALUE);
+        for (Command command : commands) {
+            command.executeCommand();
+        }
+
+        // Nodes come before the ways that use them.
+        writer.writeStartElement("create");
+        AddGridCommand addGridCommand = (AddGridCommand) commands.iterator().next();
+        for (OsmPrimitive primitive : addGridCommand.getParticipatingPrimitives()) {
+            if (primitive instanceof Node) {
+                writeNode(writer, (Node) primitive);
+            } else if (primitive instanceof Way) {
+                writeWay(writer, (Way) primitive);
+            }
+        }
+        writer.writeEndElement();
+
+        if (way.isDeleted()) {
+            writer.writeStartElement("delete");
+            writer.writeEmptyElement("way");
+            writer.writeAttribute("id", Long.toString(way.getId()));
+            writer.writeAttribute("version", Integer.toString(way.getVersion()));
+            writer.writeEndElement();
+        }
+
+        return true;
+    }
+
+    private void writeNode(XMLStreamWriter writer, Node node) throws XMLStreamException {
+        writer.writeEmptyElement("node");
+        writer.writeAttribute("id", Long.toString(node.getUniqueId()));
+        writer.writeAttribute("lat", coordinateFormat.format(node.lat()));
+        writer.writeAttribute("lon", coordinateFormat.format(node.lon()));
+    }
+
+    private static void writeWay(XMLStreamWriter writer, Way way) throws XMLStreamException {
+        writer.writeStartElement("way");
+        writer.writeAttribute("id", Long.toString(way.getUniqueId()));
+        for (Node node : way.getNodes()) {
+            writer.writeEmptyElement("nd");
+            writer.writeAttribute("ref", Long.toString(node.getUniqueId()));
+        }
+        for (Map.Entry<String, String> tag : way.getKeys().entrySet()) {
+            writer.writeEmptyElement("tag");
+            writer.writeAttribute("k", tag.getKey());
+            writer.writeAttribute("v", tag.getValue());
+        }
+        writer.writeEndElement();
+    }
+
+    private static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory.createXMLStreamReader(in);
+    }
+
+    private static int parseVersion(String version) {
+        return version == null ? 1 : Integer.parseInt(version);
+    }
+
+    /**
+     * A way from the input that a grid is generated for.
+     */
+    private static final class SourceWay {
+        final long id;
+        final int version;
+        final Map<String, String> tags = new HashMap<>();
+        long[] nodes;
+        boolean inRelation;
+
+        SourceWay(long id, int version) {
+            this.id = id;
+            this.version = version;
+        }
+    }
+
+    /**
+     * A node of one of the source ways.
+     */
+    private static final class SourceNode {
+        final int version;
+        final LatLon coor;
+
+        SourceNode(int version, LatLon coor) {
+            this.version = version;
+            this.coor = coor;
+        }
+    }
+
+    /**
+     * Run from the command line, with JOSM on the class path. Like the defaults of the Gridify dialog, tags are copied
+     * from the source ways, and the source ways are deleted.
+     *
+     * @param args {@code input.osm output.osc filter [rows columns [LINES|BLOCKS]]}
+     * @throws GridifyException Thrown if the grids cannot be generated.
+     */
+    public static void main(String[] args) throws GridifyException {
+        if (args.length != 3 && args.length != 5 && args.length != 6) {
+            System.err.println("Usage: OsmFileGridifier input.osm output.osc filter [rows columns [LINES|BLOCKS]]");
+            System.exit(2);
+        }
+
+        Config.setPreferencesInstance(Preferences.main());
+        ProjectionRegistry.setProjection(Projections.getProjectionByCode("EPSG:3857"));
+
+        int numRows = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int numColumns = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        Operation operation = args.length > 5 ? Operation.valueOf(args[5]) : Operation.BLOCKS;
+
+        OsmFileGridifier gridifier = new OsmFileGridifier(args[2], numRows, numColumns, operation, true, true);
+        int count = gridifier.gridify(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println(count + " grids written to " + args[1]);
+    }
+}
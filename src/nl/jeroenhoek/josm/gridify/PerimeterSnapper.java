@@ -0,0 +1,214 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds existing nodes to use instead of new nodes along the edges of a grid, so a grid drawn against neighbouring
+ * features shares their nodes rather than duplicating them.
+ * <p>
+ * The data set is searched once per edge of the grid, for all nodes near that edge. These candidates are sorted by
+ * their position along the edge, so finding the candidate for a point of the lattice takes a binary search, however
+ * many columns or rows the grid has. Every existing node is used at most once, so no block ever collapses.
+ */
+final class PerimeterSnapper {
+    // Mean radius of the earth, in meters.
+    private static final double EARTH_RADIUS = 6_371_000;
+
+    private final int numRows;
+    private final int numColumns;
+    private final double tolerance;
+
+    // The edges in the order top, right, bottom, left.
+    private final Edge[] edges = new Edge[4];
+    private final Set<Node> used = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private PerimeterSnapper(int numRows, int numColumns, double tolerance) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Search the data set for existing nodes near the edges of a grid. Call this on the thread that owns the data set.
+     *
+     * @param dataSet    The data set to search.
+     * @param extrema    The corners of the grid; these are never snapped to.
+     * @param numRows    Number of rows in the grid.
+     * @param numColumns Number of columns in the grid.
+     * @param tolerance  The maximum distance in meters between a point of the lattice and the node it snaps to.
+     * @param excluded   Nodes that must not be snapped to; e.g., the nodes of a preview of the grid itself.
+     * @return The snapper.
+     */
+    static PerimeterSnapper search(DataSet dataSet, GridExtrema extrema, int numRows, int numColumns,
+                                   double tolerance, Set<Node> excluded) {
+        long start = GridifyMetrics.start();
+        GridGeometry geometry = extrema.getGeometry();
+        double metersPerUnit = geometry.getMetersPerUnit();
+        PerimeterSnapper snapper = new PerimeterSnapper(
+                numRows, numColumns, metersPerUnit == 0 ? 0 : tolerance / metersPerUnit);
+
+        Node[] corners = {extrema.one, extrema.two, extrema.three, extrema.four};
+        EastNorth[] points = {
+                geometry.getTopLeft(), geometry.getTopRight(), geometry.getBottomRight(), geometry.getBottomLeft()};
+        for (int i = 0; i < 4; i++) {
+            Node from = corners[i];
+            Node to = corners[(i + 1) % 4];
+            Edge edge = new Edge(points[i], points[(i + 1) % 4]);
+
+            for (Node node : dataSet.searchNodes(searchArea(from, to, tolerance))) {
+                if (!node.isUsable() || excluded.contains(node) || isCorner(node, corners)) continue;
+                edge.offer(node, snapper.tolerance);
+            }
+            edge.sort();
+            snapper.edges[i] = edge;
+        }
+
+        GridifyMetrics.getInstance().record(GridifyMetrics.Phase.SNAPPING, start);
+        return snapper;
+    }
+
+    /**
+     * The area around an edge of the grid to search for nodes, in latitude and longitude.
+     */
+    private static BBox searchArea(Node from, Node to, double tolerance) {
+        double latMargin = Math.toDegrees(tolerance / EARTH_RADIUS);
+        double maxLat = Math.max(Math.abs(from.lat()), Math.abs(to.lat()));
+        double lonMargin = latMargin / Math.max(Math.cos(Math.toRadians(maxLat)), 1e-6);
+        return new BBox(
+                Math.min(from.lon(), to.lon()) - lonMargin, Math.min(from.lat(), to.lat()) - latMargin,
+                Math.max(from.lon(), to.lon()) + lonMargin, Math.max(from.lat(), to.lat()) + latMargin);
+    }
+
+    private static boolean isCorner(Node node, Node[] corners) {
+        for (Node corner : corners) {
+            if (node == corner) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The existing node to use for a point of the lattice, if the point lies on an edge of the grid and an unused node
+     * lies within the tolerance. The node that is returned is not returned again.
+     *
+     * @param col   Column index of the point.
+     * @param row   Row index of the point.
+     * @param east  East coordinate of the point.
+     * @param north North coordinate of the point.
+     * @return The nearest existing node, or {@code null} if the point should get a new node.
+     */
+    Node snap(int col, int row, double east, double north) {
+        Edge edge;
+        if (row == 0) {
+            edge = edges[0];
+        } else if (col == numColumns) {
+            edge = edges[1];
+        } else if (row == numRows) {
+            edge = edges[2];
+        } else if (col == 0) {
+            edge = edges[3];
+        } else {
+            return null;
+        }
+
+        Node node = edge.nearest(east, north, tolerance, used);
+        if (node != null) {
+            used.add(node);
+        }
+        return node;
+    }
+
+    /**
+     * The candidates along one edge, sorted by their position along it.
+     */
+    private static final class Edge {
+        private final EastNorth origin;
+        // Unit vector along the edge, and the length of the edge.
+        private final double dirEast;
+        private final double dirNorth;
+        private final double length;
+
+        private final List<Node> candidates = new ArrayList<>();
+        private double[] positions = new double[0];
+
+        Edge(EastNorth from, EastNorth to) {
+            origin = from;
+            double dEast = to.east() - from.east();
+            double dNorth = to.north() - from.north();
+            length = Math.hypot(dEast, dNorth);
+            dirEast = length == 0 ? 0 : dEast / length;
+            dirNorth = length == 0 ? 0 : dNorth / length;
+        }
+
+        private double along(double east, double north) {
+            return (east - origin.east()) * dirEast + (north - origin.north()) * dirNorth;
+        }
+
+        private double across(double east, double north) {
+            return (north - origin.north()) * dirEast - (east - origin.east()) * dirNorth;
+        }
+
+        /**
+         * Keep a node found in the search area if it lies close enough to the edge.
+         */
+        void offer(Node node, double tolerance) {
+            EastNorth point = node.getEastNorth();
+            if (point == null) return;
+            double t = along(point.east(), point.north());
+            if (Math.abs(across(point.east(), point.north())) <= tolerance
+                    && t >= -tolerance && t <= length + tolerance) {
+                candidates.add(node);
+            }
+        }
+
+        void sort() {
+            candidates.sort(Comparator.comparingDouble(node -> along(node.getEastNorth().east(),
+                    node.getEastNorth().north())));
+            positions = new double[candidates.size()];
+            for (int i = 0; i < positions.length; i++) {
+                EastNorth point = candidates.get(i).getEastNorth();
+                positions[i] = along(point.east(), point.north());
+            }
+        }
+
+        Node nearest(double east, double north, double tolerance, Set<Node> used) {
+            double t = along(east, north);
+
+            // The first candidate that may be within the tolerance.
+            int low = 0;
+            int high = positions.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (positions[mid] < t - tolerance) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            Node best = null;
+            double bestDistance = tolerance;
+            for (int i = low; i < positions.length && positions[i] <= t + tolerance; i++) {
+                Node candidate = candidates.get(i);
+                if (used.contains(candidate)) continue;
+                EastNorth point = candidate.getEastNorth();
+                double distance = Math.hypot(point.east() - east, point.north() - north);
+                if (distance <= bestDistance) {
+                    best = candidate;
+                    bestDistance = distance;
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.openstreetmap.josm.command.ChangeNodesCommand;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Generates a grid for a closed way of any shape: the lattice spans the smallest rectangle around the way, and is
+ * clipped against the way by a {@link LatticeClipper}.
+ * <p>
+ * The blocks along the outline reuse the nodes of the way. Where the outline crosses a line of the lattice, a new
+ * node is shared by the blocks or lines on either side. Lines end on the outline: if the way is deleted, the outline
+ * becomes a way of the grid, with a node wherever a line ends on it; if the way is kept, these nodes are inserted
+ * into it.
+ */
+final class PolygonGrid {
+    private final InputData inputData;
+    private final List<Node> nodes;
+    // Whether the nodes run in the opposite direction of the way.
+    private final boolean reversed;
+
+    // The corners of the rectangle around the way, and its sides.
+    private final EastNorth origin;
+    private final EastNorth columnAxis;
+    private final EastNorth rowAxis;
+
+    // The vertices of the way in cell coordinates of a single cell; scaled by the number of columns and rows.
+    private final double[] u;
+    private final double[] v;
+
+    private LatticeClipper clipper;
+    private List<long[]> clipped;
+    private Operation clippedOperation;
+    // The outline with the points it shares with the blocks, or with the ends of the lines.
+    private long[] clippedOutline;
+    // The number of ways generated by the last call to createCommands.
+    private int wayCount;
+
+    private PolygonGrid(Way way, List<Node> nodes, GridExtrema rectangle) {
+        this.inputData = new InputData(rectangle, way, way.getKeys());
+
+        GridGeometry geometry = rectangle.getGeometry();
+        origin = geometry.getTopLeft();
+        columnAxis = geometry.getTopRight().subtract(origin);
+        rowAxis = geometry.getBottomLeft().subtract(origin);
+
+        // The clipper needs the way to run counter-clockwise in cell coordinates.
+        reversed = signedArea(nodes) < 0;
+        if (reversed) {
+            Collections.reverse(nodes);
+        }
+        this.nodes = nodes;
+
+        u = new double[nodes.size()];
+        v = new double[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            EastNorth offset = nodes.get(i).getEastNorth().subtract(origin);
+            u[i] = clamp(dot(offset, columnAxis) / dot(columnAxis, columnAxis));
+            v[i] = clamp(dot(offset, rowAxis) / dot(rowAxis, rowAxis));
+        }
+    }
+
+    /**
+     * Twice the area of the way in cell coordinates; positive if it runs counter-clockwise in these coordinates.
+     */
+    private double signedArea(List<Node> nodes) {
+        double area = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            EastNorth a = nodes.get(i).getEastNorth().subtract(origin);
+            EastNorth b = nodes.get((i + 1) % nodes.size()).getEastNorth().subtract(origin);
+            area += dot(a, columnAxis) * dot(b, rowAxis) - dot(b, columnAxis) * dot(a, rowAxis);
+        }
+        return area;
+    }
+
+    /**
+     * Set up a grid for a closed way, unless it consists of four nodes; those are handled as a quadrilateral.
+     *
+     * @param way The selected way.
+     * @return The polygon grid, or an empty optional if the way isn't closed, has fewer than three or exactly four
+     * nodes, or has no area.
+     */
+    static Optional<PolygonGrid> from(Way way) {
+        if (!way.isClosed()) return Optional.empty();
+
+        List<Node> nodes = new ArrayList<>();
+        for (Node node : way.getNodes()) {
+            if (nodes.isEmpty() || nodes.get(nodes.size() - 1) != node) {
+                nodes.add(node);
+            }
+        }
+        nodes.remove(nodes.size() - 1);
+        if (nodes.size() < 3 || nodes.size() == 4) return Optional.empty();
+
+        List<EastNorth> points = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            points.add(node.getEastNorth());
+        }
+        EastNorth[] corners = orientedBoundingBox(points);
+        if (corners == null) return Optional.empty();
+
+        GridExtrema rectangle = GridExtrema.from(
+                new Node(corners[0]), new Node(corners[1]), new Node(corners[2]), new Node(corners[3]));
+        return Optional.of(new PolygonGrid(way, nodes, rectangle));
+    }
+
+    /**
+     * The input data of the grid. Its extrema are the corners of the rectangle around the way; these are not part of
+     * the data set, and only serve to show the rectangle in the dialog.
+     *
+     * @return The input data.
+     */
+    InputData getInputData() {
+        return inputData;
+    }
+
+    /**
+     * About the number of ways generated for the grid, without clipping; see {@link LatticeClipper#estimateCellCount()}
+     * and {@link LatticeClipper#estimateLineCount()}. This is quick enough to call on every change in the dialog. For
+     * lines, the outline is included.
+     *
+     * @param numRows    Number of rows in the grid.
+     * @param numColumns Number of columns in the grid.
+     * @param operation  The operation type (blocks or lines).
+     * @return The estimated number of ways.
+     */
+    int estimateWayCount(int numRows, int numColumns, Operation operation) {
+        LatticeClipper estimator = createClipper(numRows, numColumns);
+        return operation == Operation.LINES ? estimator.estimateLineCount() + 1 : estimator.estimateCellCount();
+    }
+
+    /**
+     * The number of ways generated by the last call to {@link #createCommands}.
+     *
+     * @return The number of ways.
+     */
+    int getWayCount() {
+        return wayCount;
+    }
+
+    /**
+     * Generate the grid, clipped against the way.
+     *
+     * @param dataSet           The dataset to operate on.
+     * @param numRows           Number of rows in the grid.
+     * @param numColumns        Number of columns in the grid.
+     * @param operation         The operation type (blocks or lines).
+     * @param copyTags          Whether to copy tags from the source way.
+     * @param deleteSourceWay   Whether to delete the source way after the operation.
+     * @param parallelThreshold Minimum number of cells for the lattice to be computed in parallel.
+     * @return A collection of commands that, when executed, generate the grid. The first command returned is the
+     * {@link nl.jeroenhoek.josm.gridify.command.AddGridCommand}.
+     */
+    Collection<Command> createCommands(DataSet dataSet, int numRows, int numColumns, Operation operation,
+                                       boolean copyTags, boolean deleteSourceWay, int parallelThreshold) {
+        GridLattice lattice = GridLattice.compute(inputData.getGridExtrema(), numRows, numColumns, parallelThreshold);
+        List<long[]> ways = clip(numRows, numColumns, operation);
+
+        GridCommandBuilder builder = new GridCommandBuilder(dataSet, inputData, copyTags, deleteSourceWay);
+        Node[] latticeNodes = new Node[lattice.size()];
+        Map<Long, Node> crossings = new HashMap<>();
+
+        long start = GridifyMetrics.start();
+        for (long[] keys : ways) {
+            Way way = new Way();
+            way.setNodes(nodes(keys, lattice, latticeNodes, crossings, builder));
+            builder.accept(way);
+        }
+
+        if (operation == Operation.LINES) {
+            List<Node> outline = nodes(clippedOutline, lattice, latticeNodes, crossings, builder);
+            Way sourceWay = inputData.getSourceWay().orElseThrow(IllegalStateException::new);
+            if (deleteSourceWay && GridCommandBuilder.canDeleteSourceWay(sourceWay)) {
+                Way way = new Way();
+                way.setNodes(outline);
+                builder.accept(way);
+            } else {
+                builder.addChange(new ChangeNodesCommand(dataSet, sourceWay, alongWay(outline, sourceWay)));
+            }
+            builder.addOutlinePath(outline);
+        } else {
+            builder.addOutlinePath(existingNodes(clippedOutline, lattice, latticeNodes, crossings));
+        }
+        GridifyMetrics.getInstance().record(GridifyMetrics.Phase.WAYS, start);
+
+        wayCount = builder.getWayCount();
+        return builder.build();
+    }
+
+    private List<Node> nodes(long[] keys, GridLattice lattice, Node[] latticeNodes, Map<Long, Node> crossings,
+                             GridCommandBuilder builder) {
+        List<Node> wayNodes = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            wayNodes.add(node(key, lattice, latticeNodes, crossings, builder));
+        }
+        return wayNodes;
+    }
+
+    /**
+     * The nodes the blocks already have for the given points, leaving out points that none of the blocks use.
+     */
+    private List<Node> existingNodes(long[] keys, GridLattice lattice, Node[] latticeNodes, Map<Long, Node> crossings) {
+        List<Node> existing = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            Node node;
+            switch (LatticeClipper.kind(key)) {
+                case LatticeClipper.POLYGON_VERTEX:
+                    node = nodes.get(LatticeClipper.first(key));
+                    break;
+                case LatticeClipper.LATTICE_POINT:
+                    node = latticeNodes[lattice.index(LatticeClipper.first(key), LatticeClipper.second(key))];
+                    break;
+                default:
+                    node = crossings.get(key);
+            }
+            if (node != null) {
+                existing.add(node);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * The closed ring of outline nodes in the direction of the way, starting at its first node, so that inserting the
+     * new nodes doesn't change anything else about the way.
+     */
+    private List<Node> alongWay(List<Node> outline, Way way) {
+        List<Node> ring = new ArrayList<>(outline.subList(0, outline.size() - 1));
+        if (reversed) {
+            Collections.reverse(ring);
+        }
+        Collections.rotate(ring, -Math.max(0, ring.indexOf(way.firstNode())));
+        ring.add(ring.get(0));
+        return ring;
+    }
+
+    /**
+     * Clip the lattice against the way. The result of the last call is kept, so generating the same grid again doesn't
+     * clip it again.
+     */
+    private List<long[]> clip(int numRows, int numColumns, Operation operation) {
+        if (clipper == null || clipper.getNumRows() != numRows || clipper.getNumColumns() != numColumns
+                || clippedOperation != operation) {
+            long start = GridifyMetrics.start();
+            clipper = createClipper(numRows, numColumns);
+            if (operation == Operation.LINES) {
+                clipped = clipper.clipLines();
+                clippedOutline = clipper.clipOutline(clipped);
+            } else {
+                clipped = clipper.clipCells();
+                clippedOutline = clipper.clipOutline();
+            }
+            clippedOperation = operation;
+            GridifyMetrics.getInstance().record(GridifyMetrics.Phase.CLIPPING, start);
+        }
+        return clipped;
+    }
+
+    private LatticeClipper createClipper(int numRows, int numColumns) {
+        double[] columns = new double[u.length];
+        double[] rows = new double[v.length];
+        for (int i = 0; i < u.length; i++) {
+            columns[i] = u[i] * numColumns;
+            rows[i] = v[i] * numRows;
+        }
+        return new LatticeClipper(columns, rows, numRows, numColumns);
+    }
+
+    /**
+     * The node a point of the clipped grid refers to, created the first time it is needed.
+     */
+    private Node node(long key, GridLattice lattice, Node[] latticeNodes, Map<Long, Node> crossings,
+                      GridCommandBuilder builder) {
+        switch (LatticeClipper.kind(key)) {
+            case LatticeClipper.POLYGON_VERTEX:
+                return nodes.get(LatticeClipper.first(key));
+            case LatticeClipper.LATTICE_POINT:
+                int index = lattice.index(LatticeClipper.first(key), LatticeClipper.second(key));
+                if (latticeNodes[index] == null) {
+                    latticeNodes[index] = new Node(new EastNorth(lattice.getEast(index), lattice.getNorth(index)));
+                    builder.addNode(latticeNodes[index]);
+                }
+                return latticeNodes[index];
+            default:
+                return crossings.computeIfAbsent(key, k -> {
+                    double column = clipper.getU(k) / lattice.getNumColumns();
+                    double row = clipper.getV(k) / lattice.getNumRows();
+                    Node node = new Node(new EastNorth(
+                            origin.east() + column * columnAxis.east() + row * rowAxis.east(),
+                            origin.north() + column * columnAxis.north() + row * rowAxis.north()));
+                    builder.addNode(node);
+                    return node;
+                });
+        }
+    }
+
+    /**
+     * The smallest rectangle around a set of points. One side of that rectangle always lies along an edge of the
+     * convex hull of the points, so only the directions of those edges are tried.
+     *
+     * @return The four corners of the rectangle, or {@code null} if the points have no area.
+     */
+    static EastNorth[] orientedBoundingBox(List<EastNorth> points) {
+        List<EastNorth> hull = convexHull(points);
+        if (hull.size() < 3) return null;
+
+        EastNorth[] best = null;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < hull.size(); i++) {
+            EastNorth edge = hull.get((i + 1) % hull.size()).subtract(hull.get(i));
+            double length = Math.hypot(edge.east(), edge.north());
+            if (length == 0) continue;
+            double ux = edge.east() / length;
+            double uy = edge.north() / length;
+
+            double minA = Double.POSITIVE_INFINITY, maxA = Double.NEGATIVE_INFINITY;
+            double minB = Double.POSITIVE_INFINITY, maxB = Double.NEGATIVE_INFINITY;
+            for (EastNorth point : hull) {
+                double a = point.east() * ux + point.north() * uy;
+                double b = point.north() * ux - point.east() * uy;
+                minA = Math.min(minA, a);
+                maxA = Math.max(maxA, a);
+                minB = Math.min(minB, b);
+                maxB = Math.max(maxB, b);
+            }
+
+            double area = (maxA - minA) * (maxB - minB);
+            if (area < bestArea) {
+                bestArea = area;
+                best = new EastNorth[]{
+                        rotateBack(minA, minB, ux, uy),
+                        rotateBack(maxA, minB, ux, uy),
+                        rotateBack(maxA, maxB, ux, uy),
+                        rotateBack(minA, maxB, ux, uy)
+                };
+            }
+        }
+        return bestArea > 0 ? best : null;
+    }
+
+    private static EastNorth rotateBack(double a, double b, double ux, double uy) {
+        return new EastNorth(a * ux - b * uy, a * uy + b * ux);
+    }
+
+    /**
+     * The convex hull of a set of points, counter-clockwise (Andrew's monotone chain).
+     */
+    private static List<EastNorth> convexHull(List<EastNorth> points) {
+        List<EastNorth> sorted = new ArrayList<>(points);
+        sorted.sort(Comparator.comparingDouble(EastNorth::east).thenComparingDouble(EastNorth::north));
+
+        List<EastNorth> hull = new ArrayList<>();
+        for (int pass = 0; pass < 2; pass++) {
+            int start = hull.size();
+            for (EastNorth point : sorted) {
+                while (hull.size() >= start + 2
+                        && cross(hull.get(hull.size() - 2), hull.get(hull.size() - 1), point) <= 0) {
+                    hull.remove(hull.size() - 1);
+                }
+                hull.add(point);
+            }
+            // The last point of each half is the first point of the other.
+            hull.remove(hull.size() - 1);
+            Collections.reverse(sorted);
+        }
+        return hull;
+    }
+
+    private static double cross(EastNorth o, EastNorth a, EastNorth b) {
+        return (a.east() - o.east()) * (b.north() - o.north()) - (a.north() - o.north()) * (b.east() - o.east());
+    }
+
+    private static double dot(EastNorth a, EastNorth b) {
+        return a.east() * b.east() + a.north() * b.north();
+    }
+
+    /**
+     * Keep points that are a rounding error outside of the rectangle on its side.
+     */
+    private static double clamp(double fraction) {
+        return Math.max(0, Math.min(1, fraction));
+    }
+}
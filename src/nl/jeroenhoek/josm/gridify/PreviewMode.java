@@ -0,0 +1,18 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+/**
+ * How the grid is previewed while the dialog is open.
+ */
+public enum PreviewMode {
+    /**
+     * Add the nodes and ways of the grid to the data set right away. The preview looks exactly like the end result,
+     * but every change notifies all data set listeners.
+     */
+    DATASET,
+
+    /**
+     * Draw the lines of the grid on top of the map, without touching the data set until the user confirms.
+     */
+    OVERLAY
+}
@@ -0,0 +1,212 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.openstreetmap.josm.tools.Utils;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Schedules updates of the {@link LivePreview} while the user changes the settings in the dialog.
+ * <p>
+ * Changes that follow each other in quick succession, such as typing "800" into one of the spinners, are merged into
+ * a single update. The lattice of the grid is computed on a worker thread; work that a newer change has made
+ * stale is cancelled, and only the most recent result is applied to the preview, on the event dispatch thread.
+ * <p>
+ * All methods must be called on the event dispatch thread.
+ */
+class PreviewScheduler {
+    /**
+     * Time in milliseconds to wait for further changes before the preview is updated.
+     */
+    static final int DELAY = 150;
+
+    private final LivePreview preview;
+    private final InputData inputData;
+    private final Supplier<Request> settings;
+    private final Consumer<GridStatistics> onApplied;
+    private final int parallelThreshold;
+
+    private final Timer timer;
+    private final ExecutorService executor;
+
+    private Future<?> running;
+    private Request latest;
+    private Request applied;
+
+    // The last lattice applied, which is reused as long as only the operation or the source way options change.
+    private GridLattice lattice;
+    private GridGeometry latticeGeometry;
+    private GridStatistics latticeStatistics;
+
+    /**
+     * Constructs a PreviewScheduler.
+     *
+     * @param preview           The preview to keep up to date.
+     * @param inputData         The input data (selected nodes/way).
+     * @param settings          Supplies the current settings of the dialog.
+     * @param onApplied         Called with the statistics of the grid after an update has been applied to the
+     *                          preview.
+     * @param parallelThreshold Minimum number of cells for the lattice to be computed in parallel.
+     */
+    PreviewScheduler(LivePreview preview, InputData inputData, Supplier<Request> settings,
+                     Consumer<GridStatistics> onApplied,
+                     int parallelThreshold) {
+        this.preview = preview;
+        this.inputData = inputData;
+        this.settings = settings;
+        this.onApplied = onApplied;
+        this.parallelThreshold = parallelThreshold;
+
+        timer = new Timer(DELAY, e -> start());
+        timer.setRepeats(false);
+        executor = Executors.newSingleThreadExecutor(Utils.newThreadFactory("gridify-preview-%d", Thread.NORM_PRIORITY));
+    }
+
+    /**
+     * Request an update of the preview. The update starts once no further requests have been made for {@link #DELAY}
+     * milliseconds.
+     */
+    void schedule() {
+        timer.restart();
+    }
+
+    /**
+     * Bring the preview up to date with the current settings right away, on the calling thread. Any pending or
+     * running update is cancelled.
+     */
+    void flush() {
+        timer.stop();
+        cancelRunning();
+
+        Request request = settings.get();
+        latest = request;
+        if (request.equals(applied)) return;
+
+        GridGeometry geometry = inputData.getGridExtrema().getGeometry();
+        if (canReuseLattice(request, geometry)) {
+            apply(request, lattice, geometry, latticeStatistics.withOperation(request.operation));
+            return;
+        }
+
+        GridLattice coordinates = GridLattice.compute(geometry, request.numRows, request.numColumns, parallelThreshold);
+        apply(request, coordinates, geometry, GridStatistics.compute(coordinates, geometry, request.operation));
+    }
+
+    /**
+     * Cancel all pending work and stop the worker thread. Results that are still underway are discarded.
+     */
+    void shutdown() {
+        timer.stop();
+        cancelRunning();
+        latest = null;
+        executor.shutdownNow();
+    }
+
+    private void start() {
+        Request request = settings.get();
+        if (request.equals(latest)) return;
+
+        cancelRunning();
+        latest = request;
+
+        // Node coordinates are read here, on the event dispatch thread; the worker never touches any primitives.
+        GridGeometry geometry = inputData.getGridExtrema().getGeometry();
+
+        // Switching between lines and blocks only changes the ways, so there is nothing to compute.
+        if (canReuseLattice(request, geometry)) {
+            apply(request, lattice, geometry, latticeStatistics.withOperation(request.operation));
+            return;
+        }
+
+        running = executor.submit(() -> {
+            GridLattice coordinates = GridLattice.compute(
+                    geometry, request.numRows, request.numColumns, parallelThreshold);
+            GridStatistics statistics = GridStatistics.compute(coordinates, geometry, request.operation);
+            SwingUtilities.invokeLater(() -> apply(request, coordinates, geometry, statistics));
+        });
+    }
+
+    private boolean canReuseLattice(Request request, GridGeometry geometry) {
+        return lattice != null
+                && latticeGeometry == geometry
+                && lattice.getNumRows() == request.numRows
+                && lattice.getNumColumns() == request.numColumns;
+    }
+
+    private void apply(Request request, GridLattice coordinates, GridGeometry geometry, GridStatistics statistics) {
+        // A newer request was made while this one was computed.
+        if (request != latest) return;
+
+        running = null;
+        GridifyMetrics metrics = GridifyMetrics.getInstance();
+        long start = GridifyMetrics.start();
+        preview.apply(coordinates, request.operation, request.copyTags, request.deleteSourceWay);
+        applied = request;
+        metrics.record(GridifyMetrics.Phase.PREVIEW, start);
+        metrics.count(GridifyMetrics.Counter.PREVIEW_RECOMPUTES, 1);
+
+        lattice = coordinates;
+        latticeGeometry = geometry;
+        latticeStatistics = statistics;
+        onApplied.accept(statistics);
+    }
+
+    private void cancelRunning() {
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+    }
+
+    /**
+     * The settings that determine what the preview looks like.
+     */
+    static final class Request {
+        final int numRows;
+        final int numColumns;
+        final Operation operation;
+        final boolean copyTags;
+        final boolean deleteSourceWay;
+
+        /**
+         * Constructs a Request.
+         *
+         * @param numRows         Number of rows in the grid.
+         * @param numColumns      Number of columns in the grid.
+         * @param operation       The operation type (blocks or lines).
+         * @param copyTags        Whether to copy tags from the source way.
+         * @param deleteSourceWay Whether to delete the source way after the operation.
+         */
+        Request(int numRows, int numColumns, Operation operation, boolean copyTags, boolean deleteSourceWay) {
+            this.numRows = numRows;
+            this.numColumns = numColumns;
+            this.operation = operation;
+            this.copyTags = copyTags;
+            this.deleteSourceWay = deleteSourceWay;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Request request = (Request) o;
+            return numRows == request.numRows
+                    && numColumns == request.numColumns
+                    && operation == request.operation
+                    && copyTags == request.copyTags
+                    && deleteSourceWay == request.deleteSourceWay;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(numRows, numColumns, operation, copyTags, deleteSourceWay);
+        }
+    }
+}
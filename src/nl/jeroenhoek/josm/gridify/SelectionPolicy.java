@@ -0,0 +1,69 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.openstreetmap.josm.data.osm.Way;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which of the generated ways to select once a grid has been created.
+ * <p>
+ * Every selected way is processed by the selection list, the properties panel and the validator, which can take
+ * longer than generating the grid itself.
+ */
+public enum SelectionPolicy {
+    /**
+     * Select all generated ways.
+     */
+    ALL {
+        @Override
+        public List<Way> select(List<Way> ways, GridOutline outline, int limit) {
+            return ways;
+        }
+    },
+    /**
+     * Select nothing.
+     */
+    NONE {
+        @Override
+        public List<Way> select(List<Way> ways, GridOutline outline, int limit) {
+            return Collections.emptyList();
+        }
+    },
+    /**
+     * Select only the ways along the outline of the grid: the outermost blocks, or the outermost lines.
+     */
+    OUTER_RING {
+        @Override
+        public List<Way> select(List<Way> ways, GridOutline outline, int limit) {
+            List<Way> ring = new ArrayList<>();
+            for (Way way : ways) {
+                if (outline.runsAlong(way)) {
+                    ring.add(way);
+                }
+            }
+            return ring;
+        }
+    },
+    /**
+     * Select all generated ways, unless there are more of them than the selection limit; then select nothing.
+     */
+    LIMITED {
+        @Override
+        public List<Way> select(List<Way> ways, GridOutline outline, int limit) {
+            return ways.size() <= limit ? ways : Collections.emptyList();
+        }
+    };
+
+    /**
+     * Pick the ways to select.
+     *
+     * @param ways    All generated ways.
+     * @param outline The outline of the grid.
+     * @param limit   The maximum number of ways to select, if this policy has a limit.
+     * @return The ways to select; may be {@code ways} itself.
+     */
+    public abstract List<Way> select(List<Way> ways, GridOutline outline, int limit);
+}
@@ -0,0 +1,249 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify.command;
+
+import nl.jeroenhoek.josm.gridify.GridifyMetrics;
+import nl.jeroenhoek.josm.gridify.GridOutline;
+import nl.jeroenhoek.josm.gridify.SelectionPolicy;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.tools.ImageProvider;
+
+import javax.swing.Icon;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+/**
+ * Adds all nodes and ways of a generated grid to the data set in one go, and selects (some of) the new ways.
+ * <p>
+ * Compared to one {@link org.openstreetmap.josm.command.AddCommand} per primitive, this command adds or removes all
+ * primitives within a single data set update, so listeners are notified once instead of once per primitive. It also
+ * keeps as little as possible on the undo stack: while the grid is in the data set, only the ways are kept, plus the
+ * few existing nodes the grid is attached to. The new nodes are found again through the ways when they are needed,
+ * which is only when the command is undone. Selecting the ways is part of this command rather than a separate
+ * {@link org.openstreetmap.josm.command.SelectCommand}, which would keep two more copies of the list of ways.
+ */
+public class AddGridCommand extends Command {
+    private final Way[] ways;
+    private final int nodeCount;
+
+    // The new nodes while they are not (all) in the data set; null while the grid is applied.
+    private Node[] nodes;
+    // The nodes of the ways that this command did not add; only kept while the grid is applied.
+    private Set<Node> attachedNodes;
+    // The selection before the ways were selected, restored on undo.
+    private Collection<OsmPrimitive> previousSelection;
+
+    // The outline of the grid, until the ways to select have been picked.
+    private GridOutline outline;
+    private SelectionPolicy selectionPolicy = SelectionPolicy.ALL;
+    private int selectionLimit;
+    // The ways to select; null until the command is first applied.
+    private List<Way> selection;
+
+    // Whether all primitives are currently part of the data set.
+    private boolean applied;
+
+    /**
+     * Constructs an AddGridCommand.
+     *
+     * @param dataSet The data set to add the grid to.
+     * @param nodes   The newly generated nodes. Existing nodes the grid is attached to must not be included.
+     * @param ways    The newly generated ways.
+     */
+    public AddGridCommand(DataSet dataSet, Collection<Node> nodes, Collection<Way> ways) {
+        this(dataSet, nodes, ways, new GridOutline());
+    }
+
+    /**
+     * Constructs an AddGridCommand for a grid of which the outline is known, so that
+     * {@link SelectionPolicy#OUTER_RING} can be used.
+     *
+     * @param dataSet The data set to add the grid to.
+     * @param nodes   The newly generated nodes. Existing nodes the grid is attached to must not be included.
+     * @param ways    The newly generated ways.
+     * @param outline The outline of the grid.
+     */
+    public AddGridCommand(DataSet dataSet, Collection<Node> nodes, Collection<Way> ways, GridOutline outline) {
+        super(dataSet);
+        this.nodes = nodes.toArray(new Node[0]);
+        this.ways = ways.toArray(new Way[0]);
+        this.nodeCount = this.nodes.length;
+        this.outline = outline;
+    }
+
+    /**
+     * Set which of the new ways to select when the command is executed. All ways are selected by default.
+     *
+     * @param policy The selection policy.
+     * @param limit  The maximum number of ways to select, for {@link SelectionPolicy#LIMITED}.
+     */
+    public void setSelectionPolicy(SelectionPolicy policy, int limit) {
+        this.selectionPolicy = policy;
+        this.selectionLimit = limit;
+    }
+
+    /**
+     * Add all primitives to the data set, unless {@link #executeChunk(int, int)} already did so.
+     *
+     * @return Always true.
+     */
+    @Override
+    public boolean executeCommand() {
+        if (!applied) {
+            executeChunk(0, getPrimitiveCount());
+        }
+        return true;
+    }
+
+    @Override
+    public void undoCommand() {
+        rollback(getPrimitiveCount());
+    }
+
+    /**
+     * Add part of the primitives to the data set, in a single data set update. Primitives are numbered nodes first,
+     * then ways, so adding them in consecutive chunks keeps every way's nodes in the data set before the way itself.
+     * Once the last primitive has been added, the command counts as executed.
+     *
+     * @param from Index of the first primitive to add.
+     * @param to   Index after the last primitive to add.
+     */
+    public void executeChunk(int from, int to) {
+        long start = GridifyMetrics.start();
+        DataSet dataSet = getAffectedDataSet();
+        dataSet.update(() -> {
+            for (int i = from; i < to; i++) {
+                dataSet.addPrimitive(getPrimitive(i));
+            }
+            if (to == getPrimitiveCount()) {
+                markApplied();
+            }
+        });
+        GridifyMetrics.getInstance().record(GridifyMetrics.Phase.EXECUTION, start);
+    }
+
+    /**
+     * Mark the command as executed, because all primitives were added to the data set by other means; e.g., by the
+     * live preview. The new ways are selected according to the selection policy.
+     */
+    public void markApplied() {
+        if (selection == null) {
+            selection = selectionPolicy.select(Arrays.asList(ways), outline, selectionLimit);
+            outline = null;
+        }
+        DataSet dataSet = getAffectedDataSet();
+        previousSelection = new ArrayList<>(dataSet.getSelected());
+        dataSet.setSelected(selection);
+
+        attachedNodes = identitySet(16);
+        Set<Node> newNodes = identitySet(nodes.length);
+        Collections.addAll(newNodes, nodes);
+        for (Way way : ways) {
+            for (int i = 0; i < way.getNodesCount(); i++) {
+                Node node = way.getNode(i);
+                if (!newNodes.contains(node)) {
+                    attachedNodes.add(node);
+                }
+            }
+        }
+        nodes = null;
+        applied = true;
+    }
+
+    /**
+     * Remove the first {@code count} primitives from the data set again, in a single data set update. This undoes
+     * the command, or rolls back a command that was only partially executed by {@link #executeChunk(int, int)}.
+     *
+     * @param count Number of primitives that were added.
+     */
+    public void rollback(int count) {
+        if (nodes == null) {
+            nodes = findNodes();
+            attachedNodes = null;
+        }
+
+        DataSet dataSet = getAffectedDataSet();
+        dataSet.update(() -> {
+            for (int i = count - 1; i >= 0; i--) {
+                dataSet.removePrimitive(getPrimitive(i));
+            }
+            if (previousSelection != null) {
+                dataSet.setSelected(previousSelection);
+                previousSelection = null;
+            }
+        });
+        applied = false;
+    }
+
+    /**
+     * The number of primitives this command adds.
+     *
+     * @return The number of nodes and ways.
+     */
+    public int getPrimitiveCount() {
+        return nodeCount + ways.length;
+    }
+
+    private OsmPrimitive getPrimitive(int index) {
+        return index < nodeCount ? nodes[index] : ways[index - nodeCount];
+    }
+
+    /**
+     * The new nodes of the grid: the nodes of its ways that it is not attached to, in the order they are first used.
+     */
+    private Node[] findNodes() {
+        if (nodes != null) return nodes;
+
+        Node[] found = new Node[nodeCount];
+        Set<Node> seen = identitySet(nodeCount);
+        int count = 0;
+        for (Way way : ways) {
+            for (int i = 0; i < way.getNodesCount(); i++) {
+                Node node = way.getNode(i);
+                if (!attachedNodes.contains(node) && seen.add(node)) {
+                    found[count++] = node;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static Set<Node> identitySet(int expectedSize) {
+        return Collections.newSetFromMap(new IdentityHashMap<>(expectedSize));
+    }
+
+    @Override
+    public void fillModifiedData(Collection<OsmPrimitive> modified, Collection<OsmPrimitive> deleted,
+                                 Collection<OsmPrimitive> added) {
+        Collections.addAll(added, findNodes());
+        Collections.addAll(added, ways);
+    }
+
+    @Override
+    public Collection<? extends OsmPrimitive> getParticipatingPrimitives() {
+        List<OsmPrimitive> primitives = new ArrayList<>(getPrimitiveCount());
+        Collections.addAll(primitives, findNodes());
+        Collections.addAll(primitives, ways);
+        return primitives;
+    }
+
+    @Override
+    public String getDescriptionText() {
+        return trn("Add grid of {0} way", "Add grid of {0} ways", ways.length, ways.length);
+    }
+
+    @Override
+    public Icon getDescriptionIcon() {
+        return ImageProvider.get("gridify");
+    }
+}
@@ -0,0 +1,72 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify.command;
+
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.SequenceCommand;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A sequence of commands, some of which have already been applied to the data set by the time the sequence is added
+ * to the undo history.
+ * <p>
+ * The first time this command is executed, only the commands that were not applied yet are executed. Undoing always
+ * undoes all commands, and redoing executes all commands again. This makes it
+ * possible to turn a live preview into an undoable command without removing it from the data set and adding it again.
+ */
+public class AppliedSequenceCommand extends SequenceCommand {
+    private final List<Command> sequence;
+    private final Set<Command> applied = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Constructs an AppliedSequenceCommand.
+     *
+     * @param name     The description of the command.
+     * @param sequence The commands, in the order they are to be executed.
+     * @param applied  The commands in {@code sequence} that have already been executed.
+     */
+    public AppliedSequenceCommand(String name, Collection<Command> sequence, Collection<Command> applied) {
+        super(name, sequence);
+        this.sequence = new ArrayList<>(sequence);
+        this.applied.addAll(applied);
+    }
+
+    @Override
+    public boolean executeCommand() {
+        if (applied.isEmpty()) {
+            return super.executeCommand();
+        }
+
+        List<Command> executed = new ArrayList<>();
+        for (Command command : sequence) {
+            if (applied.contains(command)) continue;
+            if (!command.executeCommand()) {
+                for (int i = executed.size() - 1; i >= 0; i--) {
+                    executed.get(i).undoCommand();
+                }
+                return false;
+            }
+            executed.add(command);
+        }
+
+        // From here on, all commands are undone and redone together.
+        applied.clear();
+        return true;
+    }
+
+    /**
+     * Undo all commands, in reverse order. {@link SequenceCommand#undoCommand()} only undoes a sequence that it
+     * executed itself, which isn't the case after the first execution skipped the commands that were already applied.
+     */
+    @Override
+    public void undoCommand() {
+        for (int i = sequence.size() - 1; i >= 0; i--) {
+            sequence.get(i).undoCommand();
+        }
+    }
+}
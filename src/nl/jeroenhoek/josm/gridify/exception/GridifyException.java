@@ -20,4 +20,14 @@ public class GridifyException extends Exception {
     public GridifyException(String message) {
         super(message);
     }
+
+    /**
+     * Constructs a GridifyException with a message and the exception that caused it.
+     *
+     * @param message The error message.
+     * @param cause   The cause.
+     */
+    public GridifyException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
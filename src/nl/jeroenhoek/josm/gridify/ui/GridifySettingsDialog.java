@@ -7,6 +7,7 @@ import nl.jeroenhoek.josm.gridify.Operation;
 import nl.jeroenhoek.josm.gridify.ui.GridSizePanel.Nudge;
 import org.openstreetmap.josm.gui.ExtendedDialog;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.tools.Logging;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -35,6 +36,7 @@ public class GridifySettingsDialog extends ExtendedDialog {
 
     private JLabel gridCountLabel;
     private JLabel cellSizeLabel;
+    private JLabel diagnosticsLabel;
     private Runnable changeListener;
 
     public GridifySettingsDialog(InputData inputData, GridifySettings settings) {
@@ -121,6 +123,20 @@ public class GridifySettingsDialog extends ExtendedDialog {
         constraints.insets = insetsDefault;
         controlPanel.add(cellSizeLabel, constraints);
 
+        // Timings and counters are only of interest when diagnosing a slow grid.
+        if (Logging.isDebugEnabled()) {
+            JLabel diagnosticsTitle = new JLabel(tr("Diagnostics"));
+            constraints.gridy = 9;
+            constraints.insets = insetsDefault;
+            diagnosticsTitle.setBorder(underline);
+            controlPanel.add(diagnosticsTitle, constraints);
+
+            diagnosticsLabel = new JLabel();
+            constraints.gridy = 10;
+            constraints.insets = insetsDefault;
+            controlPanel.add(diagnosticsLabel, constraints);
+        }
+
         rootPanel.add(controlPanel);
         rootPanel.add(Box.createRigidArea(new Dimension(10, 10)));
 
@@ -153,6 +169,17 @@ public class GridifySettingsDialog extends ExtendedDialog {
         cellSizeLabel.setText(cellSizeText);
     }
 
+    /**
+     * Updates the diagnostics in the dialog, if these are shown; they are only shown if debug logging is enabled.
+     *
+     * @param diagnosticsText The phase timings and counters of the current run.
+     */
+    public void setDiagnostics(String diagnosticsText) {
+        if (diagnosticsLabel != null) {
+            diagnosticsLabel.setText("<html><body style='width: 250px'>" + diagnosticsText + "</body></html>");
+        }
+    }
+
     /**
      * Registers a listener to be notified when any setting in the dialog changes.
      *
@@ -13,10 +13,8 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.BiConsumer;
 
 import static java.awt.event.InputEvent.CTRL_DOWN_MASK;
 import static java.awt.event.InputEvent.SHIFT_DOWN_MASK;
@@ -36,6 +34,11 @@ public class Preview extends JPanel {
 
     Grid grid;
 
+    // Back buffer holding the rendered grid, and the path it is drawn from; both are reused for every render.
+    private BufferedImage image;
+    private final Path2D.Float path = new Path2D.Float();
+    private boolean stale = true;
+
     public Preview(GridExtrema gridExtrema, GridifySettingsDialog settingsDialog) {
         ProjectionBounds dimensions = gridExtrema.getDimensions();
 
@@ -106,26 +109,42 @@ public class Preview extends JPanel {
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
 
-        // Use a BufferedImage to enable drawing anti-aliased lines.
-        BufferedImage image = new BufferedImage(
-                CANVAS_SIZE + 2 * PADDING,
-                CANVAS_SIZE + 2 * PADDING,
-                BufferedImage.TYPE_INT_RGB);
-        Graphics2D ig = image.createGraphics();
-
-        ig.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        // Background.
-        ig.setColor(Color.BLACK);
-        ig.fillRect(0, 0, 300, 300);
-
-        // Draw the grid.
-        ig.setColor(Color.RED);
-        grid.withLines((start, stop) -> ig.drawLine(start.x, start.y, stop.x, stop.y));
+        // Use a BufferedImage to enable drawing anti-aliased lines. The image is only drawn again when the grid has
+        // changed; repaints for any other reason reuse it as is.
+        if (image == null) {
+            image = new BufferedImage(
+                    CANVAS_SIZE + 2 * PADDING,
+                    CANVAS_SIZE + 2 * PADDING,
+                    BufferedImage.TYPE_INT_RGB);
+            stale = true;
+        }
+        if (stale) {
+            render();
+            stale = false;
+        }
 
         g.drawImage(image, 0, 0, this);
     }
 
+    private void render() {
+        Graphics2D ig = image.createGraphics();
+        try {
+            ig.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+            // Background.
+            ig.setColor(Color.BLACK);
+            ig.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+            // Draw the grid.
+            path.reset();
+            grid.appendLines(path);
+            ig.setColor(Color.RED);
+            ig.draw(path);
+        } finally {
+            ig.dispose();
+        }
+    }
+
     /**
      * Updates the number of rows and columns displayed in the preview.
      *
@@ -133,8 +152,11 @@ public class Preview extends JPanel {
      * @param columns The number of columns.
      */
     public void updateRowsColumns(int rows, int columns) {
+        if (grid.rows == rows && grid.columns == columns) return;
+
         this.grid.setRows(rows);
         this.grid.setColumns(columns);
+        stale = true;
         repaint();
     }
 
@@ -208,52 +230,36 @@ public class Preview extends JPanel {
         }
 
         /**
-         * Perform an operation on each line of the grid.
+         * Add each line of the grid to a path, both rows and columns.
          *
-         * @param consumer Consumer that receives two coordinate pairs for each line of the grid, both rows and columns.
+         * @param path Path to add the lines to.
          */
-        void withLines(BiConsumer<Coordinates, Coordinates> consumer) {
-            List<Coordinates> top = range(one, two, columns);
-            List<Coordinates> bottom = range(four, three, columns);
-            List<Coordinates> left = range(one, four, rows);
-            List<Coordinates> right = range(two, three, rows);
-
+        void appendLines(Path2D path) {
             // All columns.
-            for (int i = 0; i < top.size(); i++) {
-                consumer.accept(top.get(i), bottom.get(i));
+            for (int i = 0; i <= columns; i++) {
+                path.moveTo(between(one.x, two.x, i, columns), between(one.y, two.y, i, columns));
+                path.lineTo(between(four.x, three.x, i, columns), between(four.y, three.y, i, columns));
             }
             // All rows.
-            for (int i = 0; i < left.size(); i++) {
-                consumer.accept(left.get(i), right.get(i));
+            for (int i = 0; i <= rows; i++) {
+                path.moveTo(between(one.x, four.x, i, rows), between(one.y, four.y, i, rows));
+                path.lineTo(between(two.x, three.x, i, rows), between(two.y, three.y, i, rows));
             }
         }
 
         /**
-         * Generate a list of coordinates representing a number of points evenly distributed along a line.
+         * Compute one coordinate of a point evenly distributed along a line.
          *
-         * @param a Start of the line.
-         * @param b End of the line.
-         * @param n Number of point to add to the line.
-         * @return A list of coordinates, including the start and end of the line.
+         * @param a Coordinate of the start of the line.
+         * @param b Coordinate of the end of the line.
+         * @param i Index of the point, from zero (the start) to {@code n} (the end).
+         * @param n Number of segments to divide the line into.
+         * @return The coordinate of the point.
          */
-        private List<Coordinates> range(Coordinates a, Coordinates b, int n) {
-            List<Coordinates> points = new ArrayList<>();
-            points.add(a);
-
-            if (n > 1) {
-                float dx = (b.x - a.x) / (float) n;
-                float dy = (b.y - a.y) / (float) n;
-
-                for (int i = 1; i < n; i++) {
-                    Coordinates between = new Coordinates();
-                    between.x = a.x + Math.round(dx * i);
-                    between.y = a.y + Math.round(dy * i);
-                    points.add(between);
-                }
-            }
-
-            points.add(b);
-            return points;
+        private static int between(int a, int b, int i, int n) {
+            if (i == n) return b;
+            float d = (b - a) / (float) n;
+            return a + Math.round(d * i);
         }
 
         public void setRows(int rows) {
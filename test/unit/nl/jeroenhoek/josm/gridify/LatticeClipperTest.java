@@ -0,0 +1,193 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests of {@link LatticeClipper}.
+ */
+class LatticeClipperTest {
+    /**
+     * A polygon covering the whole lattice gives the same blocks as a plain grid: every cell, column by column, with
+     * its corners counter-clockwise.
+     */
+    @Test
+    void testConvexQuadMatchesPlainGrid() {
+        LatticeClipper clipper = new LatticeClipper(new double[]{0, 3, 3, 0}, new double[]{0, 0, 2, 2}, 2, 3);
+
+        List<long[]> rings = clipper.clipCells();
+        assertEquals(6, rings.size());
+        int index = 0;
+        for (int col = 0; col < 3; col++) {
+            for (int row = 0; row < 2; row++) {
+                long[] ring = rings.get(index++);
+                assertEquals(5, ring.length);
+                assertAt(clipper, ring[0], col, row);
+                assertAt(clipper, ring[1], col + 1, row);
+                assertAt(clipper, ring[2], col + 1, row + 1);
+                assertAt(clipper, ring[3], col, row + 1);
+                assertEquals(ring[0], ring[4]);
+            }
+        }
+        assertSingleKeyPerPosition(clipper, rings);
+
+        // The inner lines of the plain grid, from one side to the other, through every lattice point on the way.
+        List<long[]> lines = clipper.clipLines();
+        assertEquals(3, lines.size());
+        for (int col = 1; col < 3; col++) {
+            long[] line = lines.get(col - 1);
+            assertEquals(3, line.length);
+            for (int row = 0; row <= 2; row++) {
+                assertAt(clipper, line[row], col, row);
+            }
+        }
+        long[] line = lines.get(2);
+        assertEquals(4, line.length);
+        for (int col = 0; col <= 3; col++) {
+            assertAt(clipper, line[col], col, 1);
+        }
+    }
+
+    /**
+     * The cells in the notch of a concave polygon are left out, and the cells along the inner corner are kept whole.
+     */
+    @Test
+    void testConcaveShape() {
+        // An L: the lattice without its top-right quarter.
+        LatticeClipper clipper = new LatticeClipper(
+                new double[]{0, 4, 4, 2, 2, 0}, new double[]{0, 0, 2, 2, 4, 4}, 4, 4);
+
+        List<long[]> rings = clipper.clipCells();
+        assertEquals(12, rings.size());
+        for (long[] ring : rings) {
+            assertEquals(5, ring.length);
+            assertTrue(clipper.getU(ring[0]) < 2 || clipper.getV(ring[0]) < 2);
+        }
+        assertEquals(12, clipper.estimateCellCount());
+        assertSingleKeyPerPosition(clipper, rings);
+
+        // The inner lines of the notch stop at the inner corner.
+        List<long[]> lines = clipper.clipLines();
+        assertEquals(6, lines.size());
+        assertEquals(6, clipper.estimateLineCount());
+        assertSingleKeyPerPosition(clipper, lines);
+    }
+
+    /**
+     * An edge that passes through lattice points gives every such point a single key, shared by the cells and lines
+     * on either side.
+     */
+    @Test
+    void testEdgeThroughLatticePoints() {
+        LatticeClipper triangle = new LatticeClipper(new double[]{0, 4, 0}, new double[]{0, 0, 4}, 4, 4);
+        assertSingleKeyPerPosition(triangle, triangle.clipCells());
+        assertSingleKeyPerPosition(triangle, triangle.clipLines());
+
+        LatticeClipper diamond = new LatticeClipper(new double[]{2, 4, 2, 0}, new double[]{0, 2, 4, 2}, 4, 4);
+        List<long[]> cells = diamond.clipCells();
+        assertSingleKeyPerPosition(diamond, cells);
+        // The cells along the outline are triangles, from one lattice point on the outline to the next.
+        assertEquals(12, cells.size());
+        for (long[] ring : cells) {
+            for (long key : ring) {
+                assertTrue(LatticeClipper.kind(key) == LatticeClipper.LATTICE_POINT
+                        || LatticeClipper.kind(key) == LatticeClipper.POLYGON_VERTEX);
+            }
+        }
+        assertSingleKeyPerPosition(diamond, diamond.clipLines());
+    }
+
+    /**
+     * A vertex on a lattice point or lattice line is used by the cells and lines that meet there.
+     */
+    @Test
+    void testVertexOnLattice() {
+        // A square with an extra vertex halfway along its first side, on a lattice point.
+        LatticeClipper clipper = new LatticeClipper(
+                new double[]{0, 2, 4, 4, 0}, new double[]{0, 0, 0, 4, 4}, 4, 4);
+        List<long[]> cells = clipper.clipCells();
+        assertEquals(16, cells.size());
+        assertSingleKeyPerPosition(clipper, cells);
+        assertTrue(containsVertex(cells, 1));
+
+        // The column line through the vertex starts at it.
+        List<long[]> lines = clipper.clipLines();
+        assertSingleKeyPerPosition(clipper, lines);
+        assertTrue(isVertex(lines.get(1)[0], 1));
+
+        // A vertex on a column line, between two rows.
+        LatticeClipper offRow = new LatticeClipper(
+                new double[]{0, 2, 4, 4, 0}, new double[]{0, 0.5, 0, 4, 4}, 4, 4);
+        assertSingleKeyPerPosition(offRow, offRow.clipCells());
+        assertSingleKeyPerPosition(offRow, offRow.clipLines());
+    }
+
+    /**
+     * The outline contains the ends of all lines, in order along the polygon.
+     */
+    @Test
+    void testLinesConnectToOutline() {
+        LatticeClipper clipper = new LatticeClipper(
+                new double[]{0, 3.5, 3, 0.2}, new double[]{0, 0.3, 3, 3}, 3, 3);
+        List<long[]> lines = clipper.clipLines();
+        long[] outline = clipper.clipOutline(lines);
+
+        assertEquals(outline[0], outline[outline.length - 1]);
+        Set<Long> onOutline = new HashSet<>();
+        for (long key : outline) {
+            onOutline.add(key);
+        }
+        for (long[] line : lines) {
+            assertTrue(onOutline.contains(line[0]));
+            assertTrue(onOutline.contains(line[line.length - 1]));
+        }
+        // Four vertices and two ends on each side.
+        assertEquals(4 + 8 + 1, outline.length);
+
+        List<long[]> all = new ArrayList<>(lines);
+        all.add(outline);
+        assertSingleKeyPerPosition(clipper, all);
+    }
+
+    private static void assertAt(LatticeClipper clipper, long key, double u, double v) {
+        assertEquals(u, clipper.getU(key), 1e-9);
+        assertEquals(v, clipper.getV(key), 1e-9);
+    }
+
+    /**
+     * Every position the result refers to has a single key, so it becomes a single node.
+     */
+    private static void assertSingleKeyPerPosition(LatticeClipper clipper, List<long[]> result) {
+        Map<String, Long> keys = new HashMap<>();
+        for (long[] points : result) {
+            for (long key : points) {
+                String position = Math.round(clipper.getU(key) * 1e6) + "," + Math.round(clipper.getV(key) * 1e6);
+                Long previous = keys.putIfAbsent(position, key);
+                assertTrue(previous == null || previous == key, "Several keys at " + position);
+            }
+        }
+    }
+
+    private static boolean isVertex(long key, int vertex) {
+        return LatticeClipper.kind(key) == LatticeClipper.POLYGON_VERTEX && LatticeClipper.first(key) == vertex;
+    }
+
+    private static boolean containsVertex(List<long[]> result, int vertex) {
+        for (long[] points : result) {
+            for (long key : points) {
+                if (isVertex(key, vertex)) return true;
+            }
+        }
+        return false;
+    }
+}
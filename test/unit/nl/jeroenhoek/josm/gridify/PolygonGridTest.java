@@ -0,0 +1,158 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import nl.jeroenhoek.josm.gridify.command.AddGridCommand;
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+import org.openstreetmap.josm.testutils.annotations.Projection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests of {@link PolygonGrid}.
+ */
+@BasicPreferences
+@Projection
+class PolygonGridTest {
+    /**
+     * Blocks of an L-shaped way leave out its notch, and use the nodes of the way at its corners.
+     */
+    @Test
+    void testBlocks() {
+        DataSet dataSet = new DataSet();
+        Way source = lShape(dataSet);
+        PolygonGrid polygon = PolygonGrid.from(source).orElseThrow(AssertionError::new);
+
+        Collection<Command> commands = polygon.createCommands(
+                dataSet, 4, 4, Operation.BLOCKS, false, false, Integer.MAX_VALUE);
+        execute(commands);
+
+        List<Way> ways = ways(commands);
+        assertEquals(12, ways.size());
+        assertEquals(12, polygon.getWayCount());
+        assertEquals(12, polygon.estimateWayCount(4, 4, Operation.BLOCKS));
+        for (Node node : source.getNodes()) {
+            assertTrue(node.getReferrers().size() > 1, "The blocks use the nodes of the way");
+        }
+        assertNoDuplicateNodes(ways);
+    }
+
+    /**
+     * With the source way deleted, lines get an outline of their own, which every line ends on.
+     */
+    @Test
+    void testLinesWithOutline() {
+        DataSet dataSet = new DataSet();
+        Way source = lShape(dataSet);
+        PolygonGrid polygon = PolygonGrid.from(source).orElseThrow(AssertionError::new);
+
+        Collection<Command> commands = polygon.createCommands(
+                dataSet, 4, 4, Operation.LINES, false, true, Integer.MAX_VALUE);
+        execute(commands);
+        assertTrue(source.isDeleted());
+
+        List<Way> ways = ways(commands);
+        // Six inner lines, and the outline.
+        assertEquals(7, ways.size());
+        assertEquals(7, polygon.getWayCount());
+        Way outline = ways.get(ways.size() - 1);
+        assertTrue(outline.isClosed());
+        assertEndsOn(ways.subList(0, ways.size() - 1), outline);
+        assertNoDuplicateNodes(ways);
+    }
+
+    /**
+     * With the source way kept, the ends of the lines are inserted into it.
+     */
+    @Test
+    void testLinesIntoSourceWay() {
+        DataSet dataSet = new DataSet();
+        Way source = lShape(dataSet);
+        Node first = source.firstNode();
+        PolygonGrid polygon = PolygonGrid.from(source).orElseThrow(AssertionError::new);
+
+        Collection<Command> commands = polygon.createCommands(
+                dataSet, 4, 4, Operation.LINES, false, false, Integer.MAX_VALUE);
+        execute(commands);
+        assertFalse(source.isDeleted());
+
+        List<Way> ways = ways(commands);
+        assertEquals(6, ways.size());
+        assertTrue(source.isClosed());
+        assertEquals(first, source.firstNode());
+        assertEndsOn(ways, source);
+    }
+
+    /**
+     * A closed way shaped like an L, 40 by 40 units: a square without its top-right quarter. Its inner corner lies on
+     * the middle lattice point of a 4×4 grid.
+     */
+    private static Way lShape(DataSet dataSet) {
+        double[][] coordinates = {{0, 0}, {4, 0}, {4, 2}, {2, 2}, {2, 4}, {0, 4}};
+        List<Node> nodes = new ArrayList<>();
+        for (double[] coordinate : coordinates) {
+            Node node = new Node(new EastNorth(coordinate[0] * 10, coordinate[1] * 10));
+            dataSet.addPrimitive(node);
+            nodes.add(node);
+        }
+        nodes.add(nodes.get(0));
+        Way way = new Way();
+        way.setNodes(nodes);
+        dataSet.addPrimitive(way);
+        return way;
+    }
+
+    private static void execute(Collection<Command> commands) {
+        for (Command command : commands) {
+            command.executeCommand();
+        }
+    }
+
+    private static List<Way> ways(Collection<Command> commands) {
+        List<Way> ways = new ArrayList<>();
+        AddGridCommand addGridCommand = (AddGridCommand) commands.iterator().next();
+        for (OsmPrimitive primitive : addGridCommand.getParticipatingPrimitives()) {
+            if (primitive instanceof Way) {
+                ways.add((Way) primitive);
+            }
+        }
+        return ways;
+    }
+
+    private static void assertEndsOn(List<Way> lines, Way outline) {
+        Set<Node> onOutline = new HashSet<>(outline.getNodes());
+        for (Way line : lines) {
+            assertTrue(onOutline.contains(line.firstNode()));
+            assertTrue(onOutline.contains(line.lastNode()));
+        }
+    }
+
+    /**
+     * No two distinct nodes of the grid share a position.
+     */
+    private static void assertNoDuplicateNodes(List<Way> ways) {
+        Set<Node> nodes = new HashSet<>();
+        for (Way way : ways) {
+            nodes.addAll(way.getNodes());
+        }
+        Set<String> positions = new HashSet<>();
+        for (Node node : nodes) {
+            assertTrue(positions.add(Math.round(node.lat() * 1e7) + "," + Math.round(node.lon() * 1e7)),
+                    "Duplicate node at " + node.lat() + ", " + node.lon());
+        }
+    }
+}
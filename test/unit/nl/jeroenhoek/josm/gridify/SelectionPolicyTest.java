@@ -0,0 +1,86 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify;
+
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests of {@link SelectionPolicy}.
+ */
+@BasicPreferences
+class SelectionPolicyTest {
+    /**
+     * In a grid of a single row, the inner column lines run from one side of the outline to the other, but not along
+     * it; only the outermost lines are part of the outer ring.
+     */
+    @Test
+    void testOuterRingOfSingleRow() {
+        List<List<Node>> columns = lattice(1, 4);
+        GridOutline outline = new GridOutline();
+        outline.addSides(columns);
+
+        List<Way> lines = new ArrayList<>();
+        for (List<Node> column : columns) {
+            lines.add(way(column));
+        }
+        lines.add(way(row(columns, 0)));
+        lines.add(way(row(columns, 1)));
+
+        List<Way> selected = SelectionPolicy.OUTER_RING.select(lines, outline, Integer.MAX_VALUE);
+        assertEquals(Arrays.asList(lines.get(0), lines.get(4), lines.get(5), lines.get(6)), selected);
+    }
+
+    /**
+     * In a grid of a single row, every block is part of the outer ring.
+     */
+    @Test
+    void testOuterRingBlocksOfSingleRow() {
+        List<List<Node>> columns = lattice(1, 4);
+        GridOutline outline = new GridOutline();
+        outline.addSides(columns);
+
+        List<Way> blocks = new ArrayList<>();
+        for (int col = 0; col < 4; col++) {
+            List<Node> left = columns.get(col);
+            List<Node> right = columns.get(col + 1);
+            blocks.add(way(Arrays.asList(left.get(0), right.get(0), right.get(1), left.get(1), left.get(0))));
+        }
+
+        assertEquals(blocks, SelectionPolicy.OUTER_RING.select(blocks, outline, Integer.MAX_VALUE));
+    }
+
+    private static List<List<Node>> lattice(int numRows, int numColumns) {
+        List<List<Node>> columns = new ArrayList<>();
+        for (int col = 0; col <= numColumns; col++) {
+            List<Node> column = new ArrayList<>();
+            for (int row = 0; row <= numRows; row++) {
+                column.add(new Node(new LatLon(52.0 - row * 0.001, 5.0 + col * 0.001)));
+            }
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    private static List<Node> row(List<List<Node>> columns, int row) {
+        List<Node> nodes = new ArrayList<>();
+        for (List<Node> column : columns) {
+            nodes.add(column.get(row));
+        }
+        return nodes;
+    }
+
+    private static Way way(List<Node> nodes) {
+        Way way = new Way();
+        way.setNodes(nodes);
+        return way;
+    }
+}
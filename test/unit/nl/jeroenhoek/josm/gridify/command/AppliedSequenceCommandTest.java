@@ -0,0 +1,82 @@
+// License: GPL. For details, see LICENSE file.
+package nl.jeroenhoek.josm.gridify.command;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.UndoRedoHandler;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests of {@link AppliedSequenceCommand}.
+ */
+@BasicPreferences
+class AppliedSequenceCommandTest {
+    @AfterEach
+    void tearDown() {
+        UndoRedoHandler.getInstance().clean();
+    }
+
+    /**
+     * A sequence that was applied before it was added to the undo history, as by the live preview, is undone by the
+     * first undo, and can be redone and undone again.
+     */
+    @Test
+    void testUndoAppliedSequence() {
+        DataSet dataSet = new DataSet();
+        Node one = new Node(new LatLon(52.0, 5.0));
+        Node two = new Node(new LatLon(52.0, 5.001));
+        Node three = new Node(new LatLon(52.001, 5.001));
+        dataSet.addPrimitive(one);
+        dataSet.addPrimitive(two);
+        dataSet.addPrimitive(three);
+        Way source = new Way();
+        source.setNodes(Arrays.asList(one, two, three, one));
+        dataSet.addPrimitive(source);
+
+        // Apply the grid and delete the source way outside of the undo history, like the live preview does.
+        Node middle = new Node(new LatLon(52.0, 5.0005));
+        Way gridWay = new Way();
+        gridWay.setNodes(Arrays.asList(one, middle, two));
+        dataSet.addPrimitive(middle);
+        dataSet.addPrimitive(gridWay);
+        AddGridCommand addGridCommand = new AddGridCommand(
+                dataSet, Collections.singletonList(middle), Collections.singletonList(gridWay));
+        addGridCommand.markApplied();
+        Command deleteCommand = new DeleteCommand(dataSet, source);
+        deleteCommand.executeCommand();
+
+        List<Command> applied = Arrays.asList(addGridCommand, deleteCommand);
+        UndoRedoHandler.getInstance().add(new AppliedSequenceCommand("Create a grid", applied, applied));
+        assertSame(dataSet, gridWay.getDataSet());
+        assertTrue(source.isDeleted());
+
+        UndoRedoHandler.getInstance().undo();
+        assertNull(gridWay.getDataSet());
+        assertNull(middle.getDataSet());
+        assertFalse(source.isDeleted());
+
+        UndoRedoHandler.getInstance().redo();
+        assertSame(dataSet, gridWay.getDataSet());
+        assertSame(dataSet, middle.getDataSet());
+        assertTrue(source.isDeleted());
+
+        UndoRedoHandler.getInstance().undo();
+        assertNull(gridWay.getDataSet());
+        assertFalse(source.isDeleted());
+    }
+}